@@ -6,10 +6,10 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.Date;
 import java.util.Properties;
 import java.util.Vector;
-import java.util.Properties;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import org.bzdev.ecdb.SMTPAgent;
@@ -18,26 +18,86 @@ import org.bzdev.ejws.*;
 import org.bzdev.ejws.maps.*;
 import org.bzdev.net.WebEncoder;
 
+/**
+ * SMTP agent that shows the messages that would be sent.
+ * Messages are written to a temporary directory and served from
+ * there by a web server on the loopback interface, so memory use
+ * does not grow with the number of recipients. The list of
+ * recipients is split into pages, each containing at most
+ * {@link #PAGE_SIZE} entries. The temporary directory is deleted
+ * when {@link #complete(JFrame,boolean,Object...)} returns.
+ */
 public class DryrunSMTPAgent extends SMTPAgent {
 
     static final Charset UTF8 = Charset.forName("UTF-8");
-    
+
+    /**
+     * The maximum number of recipients listed on a page.
+     */
+    public static final int PAGE_SIZE = 500;
+
     int entryid = 0;
-    Properties props = new Properties();
-    StringBuilder sb = new StringBuilder();
+    int pageno = 0;
+    int pageEntries = 0;
+    File dir = null;
+    Writer page = null;
 
     DryrunSMTPAgent() {
 	super();
-	sb.append("<!DOCTYPE HTML><HTML>");
-	sb.append("<HEAD><TITLE>ECDB: recipient list</TITLE></HEAD>");
-	sb.append("<BODY><UL>");
+    }
+
+    private static String pageName(int n) {
+	return (n == 1)? "recipients.html": ("recipients" + n + ".html");
+    }
+
+    private void startPage() throws IOException {
+	pageno++;
+	pageEntries = 0;
+	File f = new File(dir, pageName(pageno));
+	page = new BufferedWriter
+	    (new OutputStreamWriter(new FileOutputStream(f), UTF8));
+	page.write("<!DOCTYPE HTML><HTML>");
+	page.write("<HEAD><TITLE>ECDB: recipient list");
+	if (pageno > 1) page.write(", page " + pageno);
+	page.write("</TITLE></HEAD><BODY>");
+	if (pageno > 1) {
+	    page.write(String.format("<P><A HREF=\"/%s\">Previous</A></P>",
+				     pageName(pageno-1)));
+	}
+	page.write("<OL start=\"" + (entryid + 1) + "\">");
+    }
+
+    private void endPage(boolean more) throws IOException {
+	page.write("</OL>");
+	if (more) {
+	    page.write(String.format("<P><A HREF=\"/%s\">Next</A></P>",
+				     pageName(pageno+1)));
+	}
+	page.write("</BODY></HTML>\n");
+	page.close();
+	page = null;
+    }
+
+    private static void write(File f, byte[] data) throws IOException {
+	try (OutputStream os = new FileOutputStream(f)) {
+	    os.write(data);
+	}
+    }
+
+    private static void delete(File f) {
+	File[] files = f.listFiles();
+	if (files != null) {
+	    for (File file: files) {
+		delete(file);
+	    }
+	}
+	f.delete();
     }
 
     public void send (Properties properties, String toAddress,
 		      Vector<byte[]> calendars)
-	throws IllegalStateException, UnsupportedEncodingException
+	throws IllegalStateException, IOException
     {
-	
  	String userAuth1 = null;
 	String pw1 = null;
 	String userName = null;
@@ -61,7 +121,15 @@ public class DryrunSMTPAgent extends SMTPAgent {
 		altText = properties.getProperty(key);
 	    }
 	}
+	if (dir == null) {
+	    dir = Files.createTempDirectory("ecdb-dryrun").toFile();
+	    startPage();
+	} else if (pageEntries == PAGE_SIZE) {
+	    endPage(true);
+	    startPage();
+	}
 	entryid++;
+	pageEntries++;
 	String suffix = null;
 	if (textMimeType != null) {
 	    if (textMimeType.toLowerCase().startsWith("text/plain")) {
@@ -84,45 +152,52 @@ public class DryrunSMTPAgent extends SMTPAgent {
 	}
 
 	String msg = "msg" + entryid;
-	sb.append(String.format("<LI><A href=\"../%s\"/>%s</A>",
-				msg + "/index.html",
-				WebEncoder.htmlEncode(toAddress)));
+	File mdir = new File(dir, msg);
+	mdir.mkdir();
+	page.write(String.format("<LI><A href=\"/%s\">%s</A>",
+				 msg + "/index.html",
+				 WebEncoder.htmlEncode(toAddress)));
 	StringBuilder msb = new StringBuilder();
 	msb.append("<!DOCTYPE HTML><HTML><HEAD>");
 	msb.append("</HEAD><BODY><H3>");
-	props.put(msg + "/Recipient.txt", toAddress.getBytes(UTF8));
+	write(new File(mdir, "Recipient.txt"), toAddress.getBytes(UTF8));
 	msb.append(String.format("Recipient: %s</H3><P>",
 				 WebEncoder.htmlEncode(toAddress)));
 	msb.append("Subject: " + WebEncoder.htmlEncode(subject) + "</P><UL>");
 	if (textMimeType != null && text != null) {
-	    // props.put(msg + "/MediaType.txt", textMimeType.getBytes(UTF8));
-	    props.put(msg + "/Text." + suffix, text.getBytes(UTF8));
+	    write(new File(mdir, "Text." + suffix), text.getBytes(UTF8));
 	    msb.append(String.format("<LI><A HREF=\"/%s/Text.%s\"/>%s</A>",
 				     msg, suffix,
 				     WebEncoder.htmlEncode(textMimeType)));
 
 	}
 	if (altTextMimeType != null && altText != null) {
-	    /*
-	    props.put(msg + "/AltMediaType.txt",
-		      altTextMimeType.getBytes(UTF8));
-	    */
-	    props.put(msg + "/AltText." + altSuffix, altText.getBytes(UTF8));
+	    write(new File(mdir, "AltText." + altSuffix),
+		  altText.getBytes(UTF8));
 	    msb.append(String.format("<LI><A HREF=\"/%s/AltText.%s\"/>%s</A>",
 				     msg, altSuffix,
 				     WebEncoder.htmlEncode(altTextMimeType)));
 	}
 	int calID = 0;
-	for (byte[] calendar: calendars) {
-	    calID++;
-	    props.put(msg + "/calendar" + calID + ".ics", calendar);
-	    msb.append(String.format
-		       ("<LI><A HREF=\"/%s/calendar%s.ics\">%s</A>",
-			msg, calID, "Calendar " + calID));
-				     
+	if (calendars != null) {
+	    for (byte[] calendar: calendars) {
+		calID++;
+		write(new File(mdir, "calendar" + calID + ".ics"), calendar);
+		msb.append(String.format
+			   ("<LI><A HREF=\"/%s/calendar%s.ics\">%s</A>",
+			    msg, calID, "Calendar " + calID));
+	    }
 	}
 	msb.append("</UL></BODY></HTML>\n");
-	props.put(msg + "/index.html", msb.toString().getBytes(UTF8));
+	write(new File(mdir, "index.html"), msb.toString().getBytes(UTF8));
+    }
+
+    @Override
+    public void sendBcc(Properties properties, Vector<String> addresses,
+			Vector<byte[]> calendars)
+	throws IllegalStateException, IOException
+    {
+	send(properties, "BCC: " + String.join(", ", addresses), calendars);
     }
 
     private boolean getStatus(JFrame frame, boolean preflight) {
@@ -166,14 +241,17 @@ public class DryrunSMTPAgent extends SMTPAgent {
     }
 
     public boolean complete(JFrame frame, boolean preflight, Object... args) {
-	sb.append("</UL></BODY></HTML>\n");
-	props.put("recipients.html", sb.toString().getBytes(UTF8));
 	EmbeddedWebServer ews = null;
 	try {
+	    if (dir == null) {
+		dir = Files.createTempDirectory("ecdb-dryrun").toFile();
+		startPage();
+	    }
+	    endPage(false);
 	    ews = new
 		EmbeddedWebServer(InetAddress.getLoopbackAddress(), 0, 48, 2);
 	    int port = ews.getPort();
-	    ews.add("/", PropertiesWebMap.class, props, null,
+	    ews.add("/", DirWebMap.class, dir, null,
 		    true, true, true);
 	    WebMap wmap = ews.getWebMap("/");
 	    wmap.addWelcome("recipients.html");
@@ -193,11 +271,15 @@ public class DryrunSMTPAgent extends SMTPAgent {
 	    return status;
 	} finally {
 	    // reset in case someone re-uses this agent.
-	    props.clear();
-	    sb.setLength(0);
-	    sb.append("<!DOCTYPE HTML><HTML>");
-	    sb.append("<HEAD><TITLE>ECDB: recipient list</TITLE></HEAD>");
-	    sb.append("<BODY><UL>");
+	    try {
+		if (page != null) page.close();
+	    } catch (IOException e) {}
+	    page = null;
+	    if (dir != null) delete(dir);
+	    dir = null;
+	    entryid = 0;
+	    pageno = 0;
+	    pageEntries = 0;
 	}
     }
 }
@@ -23,6 +23,32 @@ public class JavamailSMTPAgent extends SMTPAgent {
 		      Vector<byte[]> calendars)
 	throws MessagingException, IllegalStateException,
 	       UnsupportedEncodingException
+    {
+	MimeMessage msg = createMessage(properties, calendars);
+	msg.setRecipients(Message.RecipientType.TO,
+			  InternetAddress.parse(toAddress, false));
+	// System.out.println("sending msg");
+	Transport.send(msg);
+    }
+
+    @Override
+    public void sendBcc(Properties properties, Vector<String> addresses,
+			Vector<byte[]> calendars)
+	throws MessagingException, IllegalStateException,
+	       UnsupportedEncodingException
+    {
+	MimeMessage msg = createMessage(properties, calendars);
+	for (String address: addresses) {
+	    msg.addRecipients(Message.RecipientType.BCC,
+			      InternetAddress.parse(address, false));
+	}
+	Transport.send(msg);
+    }
+
+    private MimeMessage createMessage(Properties properties,
+				      Vector<byte[]> calendars)
+	throws MessagingException, IllegalStateException,
+	       UnsupportedEncodingException
     {
 	Properties props = new Properties();
 
@@ -72,8 +98,6 @@ public class JavamailSMTPAgent extends SMTPAgent {
 	    };
 	Session session = Session.getInstance(props, auth);
 	MimeMessage msg = new MimeMessage(session);
-	msg.setRecipients(Message.RecipientType.TO,
-			  InternetAddress.parse(toAddress, false));
 	if (userName == null) {
 	    msg.setFrom(new InternetAddress(userEmail));
 	} else {
@@ -129,7 +153,6 @@ public class JavamailSMTPAgent extends SMTPAgent {
 	    }
 	}
 	msg.setContent(multipart);
-	// System.out.println("sending msg");
-	Transport.send(msg);
+	return msg;
     }
 }
@@ -0,0 +1,7 @@
+module org.bzdev.ecdb.spool {
+    requires java.base;
+    requires java.desktop;
+    requires org.bzdev.ecdb;
+    provides org.bzdev.ecdb.SMTPAgentSPI with
+	org.bzdev.ecdb.spool.SpoolSMTPAgentProvider;
+}
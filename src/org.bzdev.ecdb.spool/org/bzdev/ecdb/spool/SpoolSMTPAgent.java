@@ -0,0 +1,451 @@
+package org.bzdev.ecdb.spool;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.regex.Pattern;
+import javax.swing.JFrame;
+import org.bzdev.ecdb.SMTPAgent;
+
+/**
+ * SMTP agent that writes messages to a spool instead of sending them.
+ * The spool is either a Maildir directory or an mbox file, and a
+ * mail transfer agent is expected to pick up the messages and deliver
+ * them (e.g., by piping each to <CODE>sendmail -t -i</CODE>).  The
+ * recipients are listed in the messages' To or Bcc headers.
+ * <P>
+ * The following email properties are used in addition to the
+ * standard ones:
+ * <UL>
+ *   <LI> <CODE>spool.path</CODE> - the Maildir directory or mbox file.
+ *   <LI> <CODE>spool.format</CODE> - either <CODE>maildir</CODE>
+ *        (the default) or <CODE>mbox</CODE>.
+ *   <LI> <CODE>spool.syncInterval</CODE> - the number of messages
+ *        written before the spool is synchronized with the disk
+ *        (the default is 64). Messages are always synchronized when
+ *        a send operation completes.
+ * </UL>
+ * For a Maildir spool, a message is written to the tmp subdirectory
+ * and moved to the new subdirectory after it has been synchronized,
+ * so a mail transfer agent will never see a partially written message.
+ */
+public class SpoolSMTPAgent extends SMTPAgent {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int DEFAULT_SYNC_INTERVAL = 64;
+
+    private static final DateTimeFormatter mboxDateFormatter =
+	DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US);
+
+    private static final Pattern fromPattern = Pattern.compile("^>*From ");
+
+    Path spool = null;
+    boolean mbox = false;
+    int syncInterval = DEFAULT_SYNC_INTERVAL;
+    FileChannel mboxChannel = null;
+    int unsynced = 0;
+    int seqno = 0;
+    String hostname;
+    long pid = ProcessHandle.current().pid();
+
+    // Maildir messages in tmp that have not been synchronized
+    ArrayList<Path> pendingPaths = new ArrayList<>();
+    ArrayList<FileChannel> pendingChannels = new ArrayList<>();
+
+    SpoolSMTPAgent() {
+	super();
+	try {
+	    hostname = InetAddress.getLocalHost().getHostName()
+		.replace("/", "\\057").replace(":", "\\072");
+	} catch (IOException e) {
+	    hostname = "localhost";
+	}
+    }
+
+    private void open(Properties properties) throws IOException {
+	String path = properties.getProperty("spool.path");
+	if (path == null || path.trim().length() == 0) {
+	    throw new IllegalStateException("email.spool.path not set");
+	}
+	spool = Paths.get(path.trim());
+	String format = properties.getProperty("spool.format", "maildir");
+	format = format.trim();
+	if (format.equalsIgnoreCase("mbox")) {
+	    mbox = true;
+	} else if (format.equalsIgnoreCase("maildir")) {
+	    mbox = false;
+	} else {
+	    throw new IllegalStateException("unknown spool format: " + format);
+	}
+	String interval = properties.getProperty("spool.syncInterval");
+	if (interval != null) {
+	    syncInterval = Integer.parseInt(interval.trim());
+	    if (syncInterval < 1) syncInterval = 1;
+	}
+	if (mbox) {
+	    Path parent = spool.toAbsolutePath().getParent();
+	    if (parent != null) Files.createDirectories(parent);
+	    mboxChannel = FileChannel.open(spool,
+					   StandardOpenOption.CREATE,
+					   StandardOpenOption.WRITE,
+					   StandardOpenOption.APPEND);
+	} else {
+	    Files.createDirectories(spool.resolve("tmp"));
+	    Files.createDirectories(spool.resolve("new"));
+	    Files.createDirectories(spool.resolve("cur"));
+	}
+    }
+
+    private static String encodeWord(String string) {
+	for (int i = 0; i < string.length(); i++) {
+	    if (string.charAt(i) > 126) {
+		return "=?UTF-8?B?" + Base64.getEncoder()
+		    .encodeToString(string.getBytes(UTF8)) + "?=";
+	    }
+	}
+	return string;
+    }
+
+    private static String encodeAddress(String address) {
+	int index = address.lastIndexOf('<');
+	if (index > 0) {
+	    String name = address.substring(0, index).trim();
+	    return encodeWord(name) + " " + address.substring(index);
+	}
+	return address;
+    }
+
+    private static String bareAddress(String address) {
+	int start = address.lastIndexOf('<');
+	int end = address.lastIndexOf('>');
+	if (start != -1 && end > start) {
+	    return address.substring(start+1, end).trim();
+	}
+	return address.trim();
+    }
+
+    /**
+     * Writer for the lines of a message.
+     * Each line is passed to the underlying writer when its newline is
+     * seen, with a carriage return preceding the newline removed.  For
+     * an mbox spool, a line starting with "From " after any number of
+     * '&gt;' characters is quoted with an additional '&gt;' (mboxrd
+     * quoting) so that a reader will not see it as the start of a
+     * message.
+     */
+    private static class MessageWriter {
+	private Writer out;
+	private boolean quote;
+	private StringBuilder line = new StringBuilder();
+
+	MessageWriter(Writer out, boolean quote) {
+	    this.out = out;
+	    this.quote = quote;
+	}
+
+	void write(String s) throws IOException {
+	    int len = s.length();
+	    for (int i = 0; i < len; i++) {
+		char ch = s.charAt(i);
+		if (ch == '\n') {
+		    int n = line.length();
+		    if (n > 0 && line.charAt(n-1) == '\r') {
+			line.setLength(n-1);
+		    }
+		    if (quote && fromPattern.matcher(line).find()) {
+			out.write('>');
+		    }
+		    out.append(line);
+		    out.write('\n');
+		    line.setLength(0);
+		} else {
+		    line.append(ch);
+		}
+	    }
+	}
+
+	void endLine() throws IOException {
+	    if (line.length() > 0) write("\n");
+	}
+
+	void flush() throws IOException {
+	    endLine();
+	    out.flush();
+	}
+    }
+
+    private static void writeText(MessageWriter w, String mediaType,
+				  String text)
+	throws IOException
+    {
+	w.write("Content-Type: " + mediaType + "\n");
+	w.write("Content-Transfer-Encoding: 8bit\n\n");
+	w.write(text);
+	w.endLine();
+    }
+
+    // number of bytes encoded in each 76-character base64 line
+    private static final int BASE64_LINE_BYTES = 57;
+
+    private static void writeBase64(MessageWriter w, byte[] data)
+	throws IOException
+    {
+	Base64.Encoder encoder = Base64.getEncoder();
+	for (int i = 0; i < data.length; i += BASE64_LINE_BYTES) {
+	    int end = Math.min(data.length, i + BASE64_LINE_BYTES);
+	    w.write(encoder.encodeToString(Arrays.copyOfRange(data, i, end)));
+	    w.write("\n");
+	}
+    }
+
+    private void writeMessage(FileChannel channel, Properties properties,
+			      String to, Vector<String> bcc,
+			      Vector<byte[]> calendars)
+	throws IOException
+    {
+	String userName = null;
+	String userEmail = null;
+	String replyto = null;
+	String subject = "Calendar Appointments";
+	String text = "The appointments are enclosed as attachments.";
+	String textMimeType = "text/plain; charset=UTF-8";
+	String altText = null;
+	String altTextMimeType = null;
+	for (String key: properties.stringPropertyNames()) {
+	    if (key.equals("userName")) {
+		userName = properties.getProperty(key);
+	    } else if (key.equals("user")) {
+		userEmail = properties.getProperty(key);
+	    } else if (key.equals("replyto")) {
+		replyto = properties.getProperty(key);
+	    } else if (key.equals("subject")) {
+		subject = properties.getProperty(key);
+	    } else if (key.equals("textMediaType")) {
+		textMimeType = properties.getProperty(key);
+	    } else if (key.equals("text")) {
+		text = properties.getProperty(key);
+	    } else if (key.equals("altTextMediaType")) {
+		altTextMimeType = properties.getProperty(key);
+	    } else if (key.equals("altText")) {
+		altText = properties.getProperty(key);
+	    }
+	}
+	if (userEmail == null) {
+	    throw new IllegalStateException("email.user not set");
+	}
+	if (replyto == null) replyto = userEmail;
+	String id = System.currentTimeMillis() + "." + pid + "." + seqno;
+	String boundary = "----=_ecdb_mixed_" + id;
+	String altBoundary = "----=_ecdb_alt_" + id;
+	ZonedDateTime now = ZonedDateTime.now();
+
+	// The channel is not closed here: the caller synchronizes it.
+	Writer out = new BufferedWriter(Channels.newWriter(channel, UTF8));
+	if (mbox) {
+	    out.write("From " + bareAddress(userEmail) + " "
+		      + now.format(mboxDateFormatter) + "\n");
+	}
+	MessageWriter w = new MessageWriter(out, mbox);
+	w.write("Date: "
+		+ now.format(DateTimeFormatter.RFC_1123_DATE_TIME) + "\n");
+	if (userName == null) {
+	    w.write("From: " + userEmail + "\n");
+	} else {
+	    w.write("From: " + encodeWord(userName)
+		    + " <" + bareAddress(userEmail) + ">\n");
+	}
+	w.write("Reply-To: " + encodeAddress(replyto) + "\n");
+	if (to != null) {
+	    w.write("To: " + encodeAddress(to) + "\n");
+	}
+	if (bcc != null) {
+	    String prefix = "Bcc: ";
+	    for (String address: bcc) {
+		w.write(prefix + encodeAddress(address));
+		prefix = ",\n ";
+	    }
+	    w.write("\n");
+	}
+	w.write("Subject: " + encodeWord(subject) + "\n");
+	w.write("Message-ID: <" + id + "@" + hostname + ">\n");
+	w.write("MIME-Version: 1.0\n");
+	w.write("Content-Type: multipart/mixed; boundary=\""
+		+ boundary + "\"\n\n");
+	w.write("--" + boundary + "\n");
+	if (altText != null && altTextMimeType != null) {
+	    w.write("Content-Type: multipart/alternative; boundary=\""
+		    + altBoundary + "\"\n\n");
+	    w.write("--" + altBoundary + "\n");
+	    writeText(w, textMimeType, text);
+	    w.write("--" + altBoundary + "\n");
+	    writeText(w, altTextMimeType, altText);
+	    w.write("--" + altBoundary + "--\n");
+	} else {
+	    writeText(w, textMimeType, text);
+	}
+	if (calendars != null) {
+	    int nn = calendars.size();
+	    int digits = 0;
+	    do {
+		digits++;
+		nn = nn/10;
+	    } while (nn > 0);
+	    String format = "event%0" + digits +"d.ics";
+	    int i = 0;
+	    for (byte[] calendar: calendars) {
+		String name = String.format(format, ++i);
+		w.write("--" + boundary + "\n");
+		w.write("Content-Type: text/calendar; charset=UTF-8; name=\""
+			+ name + "\"\n");
+		w.write("Content-Disposition: attachment; filename=\""
+			+ name + "\"\n");
+		w.write("Content-Transfer-Encoding: base64\n\n");
+		writeBase64(w, calendar);
+	    }
+	}
+	w.write("--" + boundary + "--\n");
+	if (mbox) {
+	    // the blank line separating messages
+	    w.write("\n");
+	}
+	w.flush();
+    }
+
+    private void spool(Properties properties, String to, Vector<String> bcc,
+		       Vector<byte[]> calendars)
+	throws IOException
+    {
+	seqno++;
+	if (mbox) {
+	    long start = mboxChannel.size();
+	    try {
+		writeMessage(mboxChannel, properties, to, bcc, calendars);
+	    } catch (IOException | RuntimeException e) {
+		// remove a partially written message
+		mboxChannel.truncate(start);
+		throw e;
+	    }
+	    unsynced++;
+	} else {
+	    long time = System.currentTimeMillis();
+	    String name = (time/1000) + ".M" + ((time % 1000) * 1000)
+		+ "P" + pid + "Q" + seqno + "." + hostname;
+	    Path path = spool.resolve("tmp").resolve(name);
+	    FileChannel channel =
+		FileChannel.open(path,
+				 StandardOpenOption.CREATE_NEW,
+				 StandardOpenOption.WRITE);
+	    boolean ok = false;
+	    try {
+		writeMessage(channel, properties, to, bcc, calendars);
+		ok = true;
+	    } finally {
+		if (!ok) {
+		    // sync() must never move an incomplete message to new.
+		    try {
+			channel.close();
+			Files.deleteIfExists(path);
+		    } catch (IOException e) {}
+		}
+	    }
+	    pendingPaths.add(path);
+	    pendingChannels.add(channel);
+	    unsynced++;
+	}
+	if (unsynced >= syncInterval) {
+	    sync();
+	}
+    }
+
+    private void sync() throws IOException {
+	if (mbox) {
+	    if (mboxChannel != null) mboxChannel.force(false);
+	} else {
+	    Path newdir = spool.resolve("new");
+	    int n = pendingPaths.size();
+	    for (int i = 0; i < n; i++) {
+		FileChannel channel = pendingChannels.get(i);
+		channel.force(false);
+		channel.close();
+		Path path = pendingPaths.get(i);
+		Files.move(path, newdir.resolve(path.getFileName()),
+			   StandardCopyOption.ATOMIC_MOVE);
+	    }
+	    pendingPaths.clear();
+	    pendingChannels.clear();
+	    if (n > 0) {
+		// make the directory entries durable as well.
+		try (FileChannel dir = FileChannel.open(newdir,
+							StandardOpenOption
+							.READ)) {
+		    dir.force(true);
+		} catch (IOException e) {
+		    // not supported on some platforms
+		}
+	    }
+	}
+	unsynced = 0;
+    }
+
+    public void send (Properties properties, String toAddress,
+		      Vector<byte[]> calendars)
+	throws IOException, IllegalStateException
+    {
+	if (spool == null) open(properties);
+	spool(properties, toAddress, null, calendars);
+    }
+
+    @Override
+    public void sendBcc(Properties properties, Vector<String> addresses,
+			Vector<byte[]> calendars)
+	throws IOException, IllegalStateException
+    {
+	if (spool == null) open(properties);
+	spool(properties, null, addresses, calendars);
+    }
+
+    public boolean complete(JFrame frame, boolean preflight, Object... args) {
+	try {
+	    if (spool != null) {
+		sync();
+		if (mboxChannel != null) {
+		    mboxChannel.close();
+		}
+	    }
+	    return true;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    return false;
+	} finally {
+	    // close the channels a failed sync() left open, and
+	    // reset in case someone re-uses this agent.
+	    if (mboxChannel != null) {
+		try {
+		    mboxChannel.close();
+		} catch (IOException e) {}
+	    }
+	    for (FileChannel channel: pendingChannels) {
+		try {
+		    channel.close();
+		} catch (IOException e) {}
+	    }
+	    pendingPaths.clear();
+	    pendingChannels.clear();
+	    spool = null;
+	    mboxChannel = null;
+	    unsynced = 0;
+	}
+    }
+}
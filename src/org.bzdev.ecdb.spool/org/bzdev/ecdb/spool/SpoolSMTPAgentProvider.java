@@ -0,0 +1,19 @@
+package org.bzdev.ecdb.spool;
+import org.bzdev.ecdb.SMTPAgentSPI;
+import org.bzdev.ecdb.SMTPAgent;
+
+
+
+public class SpoolSMTPAgentProvider implements SMTPAgentSPI {
+    String name = "spool";
+
+    public SpoolSMTPAgentProvider() {}
+
+    @Override
+    public String getName() {return name;}
+
+    @Override
+    public SMTPAgent createAgent() {
+	return new SpoolSMTPAgent();
+    }
+}
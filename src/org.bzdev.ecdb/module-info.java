@@ -13,6 +13,7 @@
 module org.bzdev.ecdb {
     exports org.bzdev.ecdb;
     requires org.bzdev.base;
+    requires org.bzdev.ejws;
     requires java.base;
     requires java.datatransfer;
     requires java.desktop;
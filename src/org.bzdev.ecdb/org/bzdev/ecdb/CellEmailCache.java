@@ -0,0 +1,521 @@
+package org.bzdev.ecdb;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache for the email addresses of MMS gateways.
+ * Entries are keyed by a country prefix, cell phone number, and
+ * carrier ID, and expire after the time given by the configuration
+ * property <CODE>cell.email.timeout</CODE> (in days) or, for lookups
+ * that failed, after the time given by the configuration property
+ * <CODE>cell.email.negativeTimeout</CODE> (in minutes). The number
+ * of entries is bounded by the configuration property
+ * <CODE>cell.email.cacheSize</CODE>; the least recently used entries
+ * are removed first.
+ * <P>
+ * Changes to the CellPhoneEmail table are queued and written in
+ * batches, with successive changes for the same phone number
+ * combined into a single change.
+ * <P>
+ * For a send run, the carrier map and the CellPhoneEmail rows for
+ * all recipients can be loaded in bulk by calling
+ * {@link #prefetch(ECDB,Connection,int[])}. Until
+ * {@link #endPrefetch(ECDB,Connection)} is called, lookups for those
+ * recipients do not query the database and queued changes are
+ * written only when the run ends.
+ */
+class CellEmailCache {
+
+    static final int DEFAULT_CACHE_SIZE = 1024;
+    static final long DEFAULT_NEGATIVE_TIMEOUT = 60;
+
+    // number of queued changes that triggers a flush.
+    static final int FLUSH_THRESHOLD = 64;
+
+    static final class Key {
+	String prefix;
+	String cellNumber;
+	int carrierID;
+
+	Key(String prefix, String cellNumber, int carrierID) {
+	    this.prefix = prefix;
+	    this.cellNumber = cellNumber;
+	    this.carrierID = carrierID;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (obj instanceof Key) {
+		Key k = (Key) obj;
+		return carrierID == k.carrierID
+		    && Objects.equals(prefix, k.prefix)
+		    && Objects.equals(cellNumber, k.cellNumber);
+	    }
+	    return false;
+	}
+
+	@Override
+	public int hashCode() {
+	    return Objects.hash(prefix, cellNumber, carrierID);
+	}
+    }
+
+    static final class Entry {
+	String emailAddr;	// null for a failed lookup
+	long expires;
+    }
+
+    static final class Row {
+	String emailAddr;
+	boolean setByCarrier;
+	Timestamp modTime;
+    }
+
+    enum Op {ADD, UPDATE, DELETE}
+
+    static final class Change {
+	Op op;
+	String prefix;
+	String cellNumber;
+	String emailAddr;
+    }
+
+    private int maxSize;
+    private long negativeTimeout;
+    private long hits = 0;
+    private long misses = 0;
+
+    private LinkedHashMap<Key,Entry> map;
+
+    private LinkedHashMap<String,Change> pending = new LinkedHashMap<>();
+
+    // Data loaded by prefetch; null if not loaded. A key mapped to
+    // null indicates that there is no row for that key.
+    private HashMap<String,String> carrierDomains = null;
+    private HashMap<String,Row> rows = null;
+    private ArrayList<Key> keys = null;
+
+    // maximum number of user IDs in a single query
+    private static final int MAX_IDS = 512;
+
+    CellEmailCache(int maxSize, long negativeTimeout) {
+	this.maxSize = maxSize;
+	this.negativeTimeout = negativeTimeout;
+	map = new LinkedHashMap<Key,Entry>(16, 0.75F, true) {
+		protected boolean removeEldestEntry(Map.Entry<Key,Entry> e) {
+		    return size() > CellEmailCache.this.maxSize;
+		}
+	    };
+    }
+
+    /**
+     * Get the time at which a failed lookup should be retried.
+     * @param now the current time in milliseconds
+     * @return the expiration time in milliseconds
+     */
+    long negativeExpiration(long now) {
+	return now + negativeTimeout * 60000L;
+    }
+
+    /**
+     * Get a cache entry.
+     * @param key the key
+     * @return the entry; null if there is no entry or the entry
+     *         has expired
+     */
+    synchronized Entry get(Key key) {
+	Entry entry = map.get(key);
+	if (entry != null && entry.expires < System.currentTimeMillis()) {
+	    map.remove(key);
+	    entry = null;
+	}
+	if (entry == null) {
+	    misses++;
+	} else {
+	    hits++;
+	}
+	return entry;
+    }
+
+    /**
+     * Determine if there is an unexpired entry for a key.
+     * Unlike {@link #get(Key)}, this does not change the hit and
+     * miss counts.
+     * @param key the key
+     * @return true if there is an entry; false otherwise
+     */
+    synchronized boolean contains(Key key) {
+	Entry entry = map.get(key);
+	return entry != null && entry.expires >= System.currentTimeMillis();
+    }
+
+    synchronized void put(Key key, String emailAddr, long expires) {
+	if (maxSize < 1) return;
+	Entry entry = new Entry();
+	entry.emailAddr = emailAddr;
+	entry.expires = expires;
+	map.put(key, entry);
+    }
+
+    /**
+     * Remove all entries.
+     * This should be called when the carrier map changes.
+     */
+    synchronized void clear() {
+	map.clear();
+	carrierDomains = null;
+	rows = null;
+	keys = null;
+    }
+
+    synchronized long getHits() {return hits;}
+
+    synchronized long getMisses() {return misses;}
+
+    private static String pkey(String prefix, String cellNumber) {
+	return prefix + ":" + cellNumber;
+    }
+
+    /**
+     * Load the carrier map and the CellPhoneEmail rows for a set
+     * of users.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @param userIDs the user IDs of the recipients
+     * @throws SQLException if an SQL error occurred
+     */
+    void prefetch(ECDB ecdb, Connection conn, int[] userIDs)
+	throws SQLException
+    {
+	HashMap<String,String> domains = new HashMap<>();
+	HashMap<String,Row> prows = new HashMap<>();
+	ArrayList<Key> pkeys = new ArrayList<>();
+	try (Statement statement = conn.createStatement()) {
+	    try (ResultSet rs = statement.executeQuery
+		 (ecdb.getSQLProperty("getAllCarrierDomains"))) {
+		while (rs.next()) {
+		    String domain = rs.getString(3);
+		    if (domain != null) {
+			domain = domain.trim();
+			if (domain.length() == 0) domain = null;
+		    }
+		    domains.put(ckey(rs.getString(1), rs.getInt(2)), domain);
+		}
+	    }
+	}
+	String q = ecdb.getSQLProperty("getCellPhoneEmailForUsers");
+	for (int i = 0; i < userIDs.length; i += MAX_IDS) {
+	    int n = Math.min(MAX_IDS, userIDs.length - i);
+	    StringBuilder sb = new StringBuilder();
+	    for (int j = 0; j < n; j++) {
+		if (j > 0) sb.append(",");
+		sb.append("?");
+	    }
+	    try (PreparedStatement ps =
+		 conn.prepareStatement(String.format(q, sb.toString()))) {
+		for (int j = 0; j < n; j++) {
+		    ps.setInt(j+1, userIDs[i+j]);
+		}
+		try (ResultSet rs = ps.executeQuery()) {
+		    while (rs.next()) {
+			String prefix = rs.getString(1);
+			String cellNumber = rs.getString(2);
+			String pk = pkey(prefix, cellNumber);
+			pkeys.add(new Key(prefix, cellNumber, rs.getInt(6)));
+			Row row = null;
+			Timestamp modTime = rs.getTimestamp(5);
+			// modTime is null when there is no CellPhoneEmail row
+			if (modTime != null) {
+			    row = new Row();
+			    row.emailAddr = rs.getString(3);
+			    row.setByCarrier = rs.getBoolean(4);
+			    row.modTime = modTime;
+			}
+			prows.put(pk, row);
+		    }
+		}
+	    }
+	}
+	synchronized (this) {
+	    carrierDomains = domains;
+	    rows = prows;
+	    keys = pkeys;
+	}
+    }
+
+    /**
+     * End a send run started by calling
+     * {@link #prefetch(ECDB,Connection,int[])}, writing any queued
+     * changes.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @throws SQLException if the queued changes could not be written
+     */
+    void endPrefetch(ECDB ecdb, Connection conn) throws SQLException {
+	try {
+	    flush(ecdb, conn);
+	} finally {
+	    synchronized (this) {
+		carrierDomains = null;
+		rows = null;
+		keys = null;
+	    }
+	}
+    }
+
+    /**
+     * Get the keys for the phone numbers loaded by the last call to
+     * {@link #prefetch(ECDB,Connection,int[])}.
+     * @return the keys; an empty list if prefetch was not called or
+     *         if {@link #endPrefetch(ECDB,Connection)} was called
+     */
+    synchronized ArrayList<Key> getPrefetchedKeys() {
+	return (keys == null)? new ArrayList<Key>(): keys;
+    }
+
+    synchronized boolean isPrefetching() {
+	return rows != null;
+    }
+
+    private static String ckey(String prefix, int carrierID) {
+	return prefix + ":" + carrierID;
+    }
+
+    /**
+     * Get the domain for a carrier's MMS gateway.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @param prefix the country prefix
+     * @param carrierID the carrier ID
+     * @return the domain; null if there is none
+     * @throws SQLException if an SQL error occurred
+     */
+    String getCarrierDomain(ECDB ecdb, Connection conn,
+			    String prefix, int carrierID)
+	throws SQLException
+    {
+	synchronized (this) {
+	    if (carrierDomains != null) {
+		return carrierDomains.get(ckey(prefix, carrierID));
+	    }
+	}
+	return ecdb.getCarrierDomain(conn, prefix, carrierID);
+    }
+
+    /**
+     * Get the CellPhoneEmail row for a phone number.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @param prefix the country prefix
+     * @param cellNumber the cell phone number
+     * @return the row; null if there is none
+     * @throws SQLException if an SQL error occurred
+     */
+    Row getRow(ECDB ecdb, Connection conn, String prefix, String cellNumber)
+	throws SQLException
+    {
+	String pk = pkey(prefix, cellNumber);
+	synchronized (this) {
+	    if (rows != null && rows.containsKey(pk)) {
+		return rows.get(pk);
+	    }
+	}
+	if (isPending(prefix, cellNumber)) {
+	    // so the query below will see the current value.
+	    flush(ecdb, conn);
+	}
+	String q = ecdb.getSQLProperty("getCellPhoneEmail");
+	try (PreparedStatement ps = conn.prepareStatement(q)) {
+	    ps.setString(1, prefix);
+	    ps.setString(2, cellNumber);
+	    try (ResultSet rs = ps.executeQuery()) {
+		if (rs.next()) {
+		    Row row = new Row();
+		    row.emailAddr = rs.getString(1);
+		    row.setByCarrier = rs.getBoolean(2);
+		    row.modTime = rs.getTimestamp(3);
+		    return row;
+		}
+	    }
+	}
+	return null;
+    }
+
+    synchronized boolean isPending(String prefix, String cellNumber) {
+	return pending.containsKey(pkey(prefix, cellNumber));
+    }
+
+    synchronized int pendingCount() {
+	return pending.size();
+    }
+
+    /**
+     * Queue a change to the CellPhoneEmail table.
+     * @param op the operation
+     * @param prefix the country prefix
+     * @param cellNumber the cell phone number
+     * @param emailAddr the email address (ignored for deletions)
+     */
+    synchronized void queue(Op op, String prefix, String cellNumber,
+			    String emailAddr)
+    {
+	String pk = pkey(prefix, cellNumber);
+	if (rows != null && rows.containsKey(pk)) {
+	    Row row = null;
+	    if (op != Op.DELETE) {
+		row = new Row();
+		row.emailAddr = emailAddr;
+		row.setByCarrier = false;
+		row.modTime = new Timestamp(System.currentTimeMillis());
+	    }
+	    rows.put(pk, row);
+	}
+	merge(pk, op, prefix, cellNumber, emailAddr);
+    }
+
+    // combine a change with any pending change for the same number.
+    private void merge(String pk, Op op, String prefix, String cellNumber,
+		       String emailAddr)
+    {
+	Change change = pending.get(pk);
+	if (change == null) {
+	    change = new Change();
+	    change.op = op;
+	    change.prefix = prefix;
+	    change.cellNumber = cellNumber;
+	    change.emailAddr = emailAddr;
+	    pending.put(pk, change);
+	    return;
+	}
+	switch (op) {
+	case ADD:
+	    // a pending delete means the row still exists.
+	    if (change.op == Op.DELETE) change.op = Op.UPDATE;
+	    change.emailAddr = emailAddr;
+	    break;
+	case UPDATE:
+	    change.emailAddr = emailAddr;
+	    break;
+	case DELETE:
+	    if (change.op == Op.ADD) {
+		pending.remove(pk);
+	    } else {
+		change.op = Op.DELETE;
+		change.emailAddr = null;
+	    }
+	    break;
+	}
+    }
+
+    // Put changes that could not be written back in the queue, ahead
+    // of the changes queued while they were being written.
+    private synchronized void requeue(Change[] changes) {
+	LinkedHashMap<String,Change> later = pending;
+	pending = new LinkedHashMap<>();
+	for (Change change: changes) {
+	    pending.put(pkey(change.prefix, change.cellNumber), change);
+	}
+	for (Map.Entry<String,Change> e: later.entrySet()) {
+	    Change change = e.getValue();
+	    merge(e.getKey(), change.op, change.prefix, change.cellNumber,
+		  change.emailAddr);
+	}
+    }
+
+    /**
+     * Write queued changes to the database.
+     * The changes are written in a single transaction unless the
+     * connection is already in one. If the changes cannot be written,
+     * they remain queued.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @return the number of rows added, updated, or deleted
+     * @throws SQLException if an SQL error occurred
+     */
+    int flush(ECDB ecdb, Connection conn) throws SQLException {
+	Change[] changes;
+	synchronized (this) {
+	    if (pending.size() == 0) return 0;
+	    changes = pending.values().toArray(new Change[pending.size()]);
+	    pending.clear();
+	}
+	boolean autoCommit = conn.getAutoCommit();
+	boolean ok = false;
+	int count = 0;
+	try {
+	    if (autoCommit) conn.setAutoCommit(false);
+	    try (PreparedStatement aps = conn.prepareStatement
+		 (ecdb.getSQLProperty("addCellPhoneEmail"));
+		 PreparedStatement ups = conn.prepareStatement
+		 (ecdb.getSQLProperty("updateCellPhoneEmail"));
+		 PreparedStatement dps = conn.prepareStatement
+		 (ecdb.getSQLProperty("deleteCellPhoneEmail"))) {
+		boolean adds = false;
+		boolean updates = false;
+		boolean deletes = false;
+		for (Change change: changes) {
+		    switch (change.op) {
+		    case ADD:
+			aps.setString(1, change.prefix);
+			aps.setString(2, change.cellNumber);
+			aps.setString(3, change.emailAddr);
+			aps.setBoolean(4, false);
+			aps.addBatch();
+			adds = true;
+			break;
+		    case UPDATE:
+			ups.setString(1, change.emailAddr);
+			ups.setBoolean(2, false);
+			ups.setString(3, change.prefix);
+			ups.setString(4, change.cellNumber);
+			ups.addBatch();
+			updates = true;
+			break;
+		    case DELETE:
+			dps.setString(1, change.prefix);
+			dps.setString(2, change.cellNumber);
+			dps.addBatch();
+			deletes = true;
+			break;
+		    }
+		}
+		if (deletes) count += rowCount(dps.executeBatch());
+		if (updates) count += rowCount(ups.executeBatch());
+		if (adds) count += rowCount(aps.executeBatch());
+	    }
+	    if (autoCommit) conn.commit();
+	    ok = true;
+	} finally {
+	    if (!ok) {
+		if (autoCommit) {
+		    try {
+			System.err.println
+			    ("Rolling back CellPhoneEmail changes");
+			conn.rollback();
+		    } catch (SQLException e) {
+			System.err.println("SQL exception during rollback");
+		    }
+		}
+		requeue(changes);
+	    }
+	    if (autoCommit) conn.setAutoCommit(true);
+	}
+	return count;
+    }
+
+    private static int rowCount(int[] counts) {
+	int count = 0;
+	for (int n: counts) {
+	    if (n > 0) {
+		count += n;
+	    } else if (n == Statement.SUCCESS_NO_INFO) {
+		count++;
+	    }
+	}
+	return count;
+    }
+}
@@ -2,7 +2,13 @@ package org.bzdev.ecdb;
 import java.sql.*;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for finding the email address to use for an MMS gateway
@@ -35,108 +41,347 @@ public abstract class CellEmailFinder {
      * {@link CellEmailFinder#lookup(String, String)} will be used to
      * look up the number using an instance of {@link CellEmailFinder}
      * obtained from its service-provider interface.
+     * <P>
+     * Results, including failed lookups, are cached by the ECDB
+     * instance, and changes to the database's cached values are
+     * queued and written in batches. Queued changes are written
+     * when {@link ECDB#flushCellEmailCache(Connection)} is called,
+     * when enough changes are queued, or when the ECDB instance is
+     * closed.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
      * @param prefix the country prefix (e.g., 1 for the U.S.).
      * @param cellNumber the cell phone number, not including the
      *        prefix.
+     * @param carrierID the carrier ID for the cell phone number
      * @return the email address
      */
     public static String lookup(ECDB ecdb, Connection conn,
 				String prefix, String cellNumber,
 				int carrierID)
     {
+	CellEmailCache cache = ecdb.cellEmailCache;
+	CellEmailCache.Key key =
+	    new CellEmailCache.Key(prefix, cellNumber, carrierID);
+	CellEmailCache.Entry entry = cache.get(key);
+	if (entry != null) {
+	    return entry.emailAddr;
+	}
+	Resolution r = resolveLocally(ecdb, conn, key);
+	if (r.emailAddr == null) {
+	    for (CellEmailFinderSPI p: providers) {
+		if (p.isSupported(prefix, cellNumber)) {
+		    CellEmailFinder finder =
+			p.getInstance(prefix, cellNumber);
+		    r.emailAddr = finder.lookup(prefix, cellNumber);
+		    if (r.emailAddr != null) {
+			r.fromProvider = true;
+			break;
+		    }
+		}
+	    }
+	}
+	complete(ecdb, conn, key, r);
+	return r.emailAddr;
+    }
+
+    // The state of a lookup before any service provider is used.
+    private static class Resolution {
+	long now;
+	long expires;
 	String emailAddr = null;
-	String q = ecdb.getSQLProperty("getCellPhoneEmail");
 	String cachedAddr = null;
-	Boolean cachedSBC = null;
 	boolean invalidCache = false;
-	try (PreparedStatement ps = conn.prepareStatement(q)) {
-	    ps.setString(1, prefix);
-	    ps.setString(2, cellNumber);
-	    try (ResultSet rs = ps.executeQuery()) {
-		if (rs.next()) {
-		    java.sql.Timestamp cachedModtime = rs.getTimestamp(3);
-		    long ival = cachedModtime.toInstant()
-			.until(Instant.now(), ChronoUnit.DAYS);
-		    long max = ecdb.getCellEmailAddrTimeout();
-		    cachedAddr = rs.getString(1);
-		    cachedSBC = rs.getBoolean(2);
-		    if (ival > max && cachedSBC == false) {
-			invalidCache = true;
-		    }
+	boolean fromProvider = false;
+    }
+
+    private static Resolution resolveLocally(ECDB ecdb, Connection conn,
+					     CellEmailCache.Key key)
+    {
+	CellEmailCache cache = ecdb.cellEmailCache;
+	String prefix = key.prefix;
+	String cellNumber = key.cellNumber;
+	int carrierID = key.carrierID;
+	Resolution r = new Resolution();
+	r.now = System.currentTimeMillis();
+	long max = ecdb.getCellEmailAddrTimeout();
+	r.expires = r.now + max * 86400000L;
+	Boolean cachedSBC = null;
+	long cachedExpires = r.expires;
+	try {
+	    CellEmailCache.Row row =
+		cache.getRow(ecdb, conn, prefix, cellNumber);
+	    if (row != null) {
+		java.sql.Timestamp cachedModtime = row.modTime;
+		long ival = cachedModtime.toInstant()
+		    .until(Instant.now(), ChronoUnit.DAYS);
+		r.cachedAddr = row.emailAddr;
+		cachedSBC = row.setByCarrier;
+		if (ival > max && cachedSBC == false) {
+		    r.invalidCache = true;
+		} else if (cachedSBC == false) {
+		    cachedExpires = cachedModtime.getTime()
+			+ (max + 1) * 86400000L;
 		}
 	    }
 	} catch (SQLException e) {
 	    e.printStackTrace(System.err);
 	}
-	
+
 	if (carrierID > 1) {
 	    try {
-		String domain = ecdb.getCarrierDomain(conn, prefix, carrierID);
+		String domain =
+		    cache.getCarrierDomain(ecdb, conn, prefix, carrierID);
 		if (domain != null) {
-		    emailAddr = cellNumber + "@" + domain;
-		    if (cachedAddr != null) {
-			invalidCache = true;
+		    r.emailAddr = cellNumber + "@" + domain;
+		    if (r.cachedAddr != null) {
+			r.invalidCache = true;
 		    }
-		} else if (cachedAddr != null) {
-		    emailAddr = cachedAddr;
+		} else if (r.cachedAddr != null) {
+		    r.emailAddr = r.cachedAddr;
+		    r.expires = cachedExpires;
 		}
 	    } catch (SQLException e) {
 	        e.printStackTrace(System.err);
 	    }
-	} else if (invalidCache == false) {
-	    emailAddr = cachedAddr;
+	} else if (r.invalidCache == false) {
+	    r.emailAddr = r.cachedAddr;
+	    r.expires = cachedExpires;
 	}
-	if (emailAddr == null) {
-	    for (CellEmailFinderSPI p: providers) {
-		if (p.isSupported(prefix, cellNumber)) {
-		    CellEmailFinder finder =
-			p.getInstance(prefix, cellNumber);
-		    emailAddr = finder.lookup(prefix, cellNumber);
-		    if (emailAddr != null) {
-			if (cachedAddr == null) {
-			    q = ecdb.getSQLProperty("addCellPhoneEmail");
-			    try (PreparedStatement ps
-				 = conn.prepareStatement(q)) {
-				ps.setString(1, prefix);
-				ps.setString(2, cellNumber);
-				ps.setString(3, emailAddr);
-				ps.setBoolean(4, false);
-				ps.executeUpdate();
-			    } catch (SQLException e) {
-				e.printStackTrace(System.err);
-			    }
-			}
-			break;
-		    }
-		}
-	    }
+	return r;
+    }
+
+    private static void complete(ECDB ecdb, Connection conn,
+				 CellEmailCache.Key key, Resolution r)
+    {
+	CellEmailCache cache = ecdb.cellEmailCache;
+	String prefix = key.prefix;
+	String cellNumber = key.cellNumber;
+	if (r.fromProvider && r.cachedAddr == null) {
+	    cache.queue(CellEmailCache.Op.ADD,
+			prefix, cellNumber, r.emailAddr);
 	}
-	if (invalidCache) {
-	    if (emailAddr != null) {
+	if (r.invalidCache) {
+	    if (r.emailAddr != null) {
 		// cache in invalid so there is a cached email address
 		// and we found a new value.
-		q = ecdb.getSQLProperty("updateCellPhoneEmail");
-		try (PreparedStatement ps = conn.prepareStatement(q)) {
-		    ps.setString(1, emailAddr);
-		    ps.setBoolean(2, false);
-		    ps.setString(3, prefix);
-		    ps.setString(4, cellNumber);
-		    ps.executeUpdate();
-		} catch (SQLException e) {
-		    e.printStackTrace(System.err);
-		}
+		cache.queue(CellEmailCache.Op.UPDATE,
+			    prefix, cellNumber, r.emailAddr);
+	    } else {
+		cache.queue(CellEmailCache.Op.DELETE,
+			    prefix, cellNumber, null);
+	    }
+	}
+	cache.put(key, r.emailAddr,
+		  ((r.emailAddr == null)? cache.negativeExpiration(r.now):
+		   r.expires));
+	if (!cache.isPrefetching()
+	    && cache.pendingCount() >= CellEmailCache.FLUSH_THRESHOLD) {
+	    try {
+		cache.flush(ecdb, conn);
+	    } catch (SQLException e) {
+		// the changes remain queued and are written later.
+		e.printStackTrace(System.err);
+	    }
+	}
+    }
+
+    // Tracks consecutive failures of a provider during a call to
+    // resolve so that a failing provider is skipped.
+    private static class Breaker {
+	CellEmailFinderSPI provider;
+	AtomicInteger failures = new AtomicInteger(0);
+
+	Breaker(CellEmailFinderSPI provider) {
+	    this.provider = provider;
+	}
+    }
+
+    /**
+     * Look up the MMS-gateway email addresses for a set of cell
+     * phone numbers, using service providers concurrently.
+     * Numbers whose addresses are available from the ECDB instance's
+     * cache, the database, or the carrier map do not use a service
+     * provider. For the others, the service providers are called from
+     * at most <CODE>cell.email.threads</CODE> threads (a configuration
+     * property whose default is 8), and a call that takes longer
+     * than <CODE>cell.email.lookupTimeout</CODE> seconds (default 10)
+     * is abandoned. A provider that fails or times out
+     * <CODE>cell.email.maxFailures</CODE> times in a row (default 3)
+     * is not used for the remaining numbers.
+     * <P>
+     * The results are stored in the ECDB instance's cache so that
+     * subsequent calls to
+     * {@link #lookup(ECDB,Connection,String,String,int)} will not
+     * use a service provider for these numbers.  Changes to the
+     * database are queued as described for that method.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @param keys the keys (country prefix, cell phone number, and
+     *        carrier ID) to look up
+     */
+    static void resolve(ECDB ecdb, Connection conn,
+			Collection<CellEmailCache.Key> keys)
+    {
+	CellEmailCache cache = ecdb.cellEmailCache;
+	LinkedHashMap<CellEmailCache.Key,Resolution> unresolved =
+	    new LinkedHashMap<>();
+	for (CellEmailCache.Key key: keys) {
+	    if (unresolved.containsKey(key) || cache.contains(key)) continue;
+	    Resolution r = resolveLocally(ecdb, conn, key);
+	    if (r.emailAddr == null) {
+		unresolved.put(key, r);
 	    } else {
-		q = ecdb.getSQLProperty("deleteCellPhoneEmail");
-		try (PreparedStatement ps = conn.prepareStatement(q)) {
-		    ps.setString(1, prefix);
-		    ps.setString(2, cellNumber);
-		    ps.executeUpdate();
-		} catch (SQLException e) {
+		complete(ecdb, conn, key, r);
+	    }
+	}
+	if (unresolved.size() == 0) return;
+	useProviders(ecdb, unresolved);
+	for (Map.Entry<CellEmailCache.Key,Resolution> e:
+		 unresolved.entrySet()) {
+	    complete(ecdb, conn, e.getKey(), e.getValue());
+	}
+    }
+
+    // Look up addresses concurrently using the service providers,
+    // setting the emailAddr and fromProvider fields of the map's
+    // values when an address is found.
+    private static void useProviders(ECDB ecdb,
+				     Map<CellEmailCache.Key,Resolution>
+				     unresolved)
+    {
+	ArrayList<Breaker> breakers = new ArrayList<>();
+	// ServiceLoader iterators are not thread safe.
+	synchronized (providers) {
+	    for (CellEmailFinderSPI p: providers) {
+		breakers.add(new Breaker(p));
+	    }
+	}
+	if (breakers.size() == 0) return;
+	int nthreads = Math.min(ecdb.cellEmailThreads, unresolved.size());
+	long timeout = ecdb.cellEmailLookupTimeout;
+	int maxFailures = ecdb.cellEmailMaxFailures;
+	ThreadFactory tf = (runnable) -> {
+	    Thread thread = new Thread(runnable);
+	    thread.setDaemon(true);
+	    return thread;
+	};
+	// workers take numbers from the queue; each provider call
+	// runs in a separate thread so that it can be abandoned.
+	ExecutorService workers = Executors.newFixedThreadPool(nthreads, tf);
+	ExecutorService callers = Executors.newCachedThreadPool(tf);
+	try {
+	    ArrayList<Future<?>> futures = new ArrayList<>();
+	    for (Map.Entry<CellEmailCache.Key,Resolution> e:
+		     unresolved.entrySet()) {
+		CellEmailCache.Key key = e.getKey();
+		Resolution r = e.getValue();
+		futures.add(workers.submit(() -> {
+			    for (Breaker b: breakers) {
+				if (b.failures.get() >= maxFailures) continue;
+				Future<String> f = callers.submit(() -> {
+					CellEmailFinderSPI p = b.provider;
+					if (!p.isSupported(key.prefix,
+							   key.cellNumber)) {
+					    return null;
+					}
+					return p.getInstance(key.prefix,
+							     key.cellNumber)
+					    .lookup(key.prefix, key.cellNumber);
+				    });
+				try {
+				    String addr =
+					f.get(timeout, TimeUnit.SECONDS);
+				    b.failures.set(0);
+				    if (addr != null) {
+					r.emailAddr = addr;
+					r.fromProvider = true;
+					break;
+				    }
+				} catch (TimeoutException | ExecutionException
+					 ex) {
+				    f.cancel(true);
+				    b.failures.incrementAndGet();
+				} catch (InterruptedException ex) {
+				    f.cancel(true);
+				    return;
+				}
+			    }
+			}));
+	    }
+	    for (Future<?> f: futures) {
+		try {
+		    f.get();
+		} catch (ExecutionException e) {
 		    e.printStackTrace(System.err);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    break;
 		}
+	    }
+	} finally {
+	    workers.shutdownNow();
+	    callers.shutdownNow();
+	}
+    }
 
+    /**
+     * Look up the MMS-gateway email addresses that will soon age out.
+     * The CellPhoneEmail table caches email addresses found by service
+     * providers for {@link ECDB#getCellEmailAddrTimeout()} days. This
+     * method finds the entries that are older than that timeout minus
+     * a margin and looks them up again, as described for
+     * {@link #resolve(ECDB,Connection,Collection)}, so that the lookups
+     * do not occur while messages are being sent. Entries for which a
+     * provider returns an address are updated, which also updates their
+     * modification times. Other entries are not changed. Changes
+     * already queued are written before the entries are updated.
+     * @param ecdb the ECDB instance
+     * @param conn a database connection
+     * @param margin the margin in days
+     * @return the number of entries updated in the database
+     * @throws SQLException if an SQL error occurred
+     */
+    static int refresh(ECDB ecdb, Connection conn, long margin)
+	throws SQLException
+    {
+	long days = Math.max(0, ecdb.getCellEmailAddrTimeout() - margin);
+	Timestamp limit = new
+	    Timestamp(Instant.now().minus(days, ChronoUnit.DAYS)
+		      .toEpochMilli());
+	LinkedHashMap<CellEmailCache.Key,Resolution> aging =
+	    new LinkedHashMap<>();
+	String q = ecdb.getSQLProperty("getAgingCellPhoneEmail");
+	try (PreparedStatement ps = conn.prepareStatement(q)) {
+	    ps.setTimestamp(1, limit);
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    // the carrier ID is not used by service providers.
+		    CellEmailCache.Key key = new CellEmailCache.Key
+			(rs.getString(1), rs.getString(2), 0);
+		    Resolution r = new Resolution();
+		    aging.put(key, r);
+		}
+	    }
+	}
+	if (aging.size() == 0) return 0;
+	useProviders(ecdb, aging);
+	CellEmailCache cache = ecdb.cellEmailCache;
+	// so that the count below includes only these entries.
+	cache.flush(ecdb, conn);
+	for (Map.Entry<CellEmailCache.Key,Resolution> e: aging.entrySet()) {
+	    CellEmailCache.Key key = e.getKey();
+	    Resolution r = e.getValue();
+	    if (r.emailAddr != null) {
+		cache.queue(CellEmailCache.Op.UPDATE,
+			    key.prefix, key.cellNumber, r.emailAddr);
 	    }
 	}
-	return emailAddr;
+	int count = cache.flush(ecdb, conn);
+	if (count > 0) {
+	    // entries with the old addresses may be in memory.
+	    cache.clear();
+	}
+	return count;
     }
 }
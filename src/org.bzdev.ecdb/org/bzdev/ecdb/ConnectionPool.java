@@ -0,0 +1,418 @@
+package org.bzdev.ecdb;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Pool of database connections.
+ * The connections returned by {@link #getConnection(String,Properties)}
+ * are proxies: closing one returns the underlying connection to the
+ * pool instead of closing it.  When a connection is returned, a
+ * transaction that was not committed is rolled back and auto-commit
+ * mode is restored.
+ * <P>
+ * The number of connections that are in use at the same time is
+ * bounded. An idle connection is closed when it has not been used
+ * for a specified time, and is validated before it is reused.
+ * <P>
+ * Each connection also caches the prepared statements created by
+ * calling {@link Connection#prepareStatement(String)}, keyed by the
+ * statement's SQL text, so that a statement that is used repeatedly
+ * is prepared once per connection.  Closing a cached statement closes
+ * its current result set, clears its parameters, and restores its
+ * maximum number of rows, fetch size, and query timeout, but leaves
+ * it open for reuse.
+ */
+class ConnectionPool {
+
+    static final int DEFAULT_MAX_SIZE = 8;
+    static final long DEFAULT_MAX_IDLE = 300;
+    static final long DEFAULT_WAIT_TIMEOUT = 60;
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    static final int VALIDATION_TIMEOUT = 5;
+
+    private int maxSize;
+    private long maxIdle;
+    private long waitTimeout;
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+    private static final class StatementHandler implements InvocationHandler {
+	PreparedStatement statement;
+	PreparedStatement proxy;
+	ResultSet resultSet = null;
+	boolean inUse = false;
+	// initial values restored when the statement is returned
+	int maxRows;
+	int fetchSize;
+	int queryTimeout;
+
+	StatementHandler(PreparedStatement statement) throws SQLException {
+	    this.statement = statement;
+	    maxRows = statement.getMaxRows();
+	    fetchSize = statement.getFetchSize();
+	    queryTimeout = statement.getQueryTimeout();
+	    proxy = (PreparedStatement)
+		Proxy.newProxyInstance(PreparedStatement.class
+				       .getClassLoader(),
+				       new Class<?>[] {PreparedStatement.class},
+				       this);
+	}
+
+	void reset() {
+	    inUse = false;
+	    try {
+		if (resultSet != null) resultSet.close();
+		statement.clearParameters();
+		statement.clearBatch();
+		statement.clearWarnings();
+		if (statement.getMaxRows() != maxRows) {
+		    statement.setMaxRows(maxRows);
+		}
+		if (statement.getFetchSize() != fetchSize) {
+		    statement.setFetchSize(fetchSize);
+		}
+		if (statement.getQueryTimeout() != queryTimeout) {
+		    statement.setQueryTimeout(queryTimeout);
+		}
+	    } catch (SQLException e) {}
+	    resultSet = null;
+	}
+
+	@Override
+	public Object invoke(Object p, Method method, Object[] args)
+	    throws Throwable
+	{
+	    String name = method.getName();
+	    int nargs = (args == null)? 0: args.length;
+	    if (name.equals("close") && nargs == 0) {
+		if (inUse) reset();
+		return null;
+	    } else if (name.equals("isClosed") && nargs == 0) {
+		return !inUse || statement.isClosed();
+	    } else if (name.equals("equals") && nargs == 1) {
+		return p == args[0];
+	    } else if (name.equals("hashCode") && nargs == 0) {
+		return System.identityHashCode(p);
+	    }
+	    if (!inUse) throw new SQLException("statement closed");
+	    try {
+		Object result = method.invoke(statement, args);
+		if (result instanceof ResultSet) {
+		    resultSet = (ResultSet) result;
+		}
+		return result;
+	    } catch (InvocationTargetException e) {
+		throw e.getCause();
+	    }
+	}
+    }
+
+    private static final class Pooled {
+	Connection connection;
+	long lastUsed;
+	LinkedHashMap<String,StatementHandler> statements;
+
+	Pooled(Connection connection, int cacheSize) {
+	    this.connection = connection;
+	    statements = new LinkedHashMap<String,StatementHandler>
+		(16, 0.75F, true) {
+		    protected boolean
+			removeEldestEntry(Map.Entry<String,StatementHandler> e)
+		    {
+			if (size() > cacheSize) {
+			    StatementHandler h = e.getValue();
+			    if (!h.inUse) {
+				try {
+				    h.statement.close();
+				} catch (SQLException ex) {}
+				return true;
+			    }
+			}
+			return false;
+		    }
+		};
+	}
+
+	PreparedStatement prepareStatement(String sql) throws SQLException {
+	    StatementHandler h = statements.get(sql);
+	    if (h == null || h.statement.isClosed()) {
+		h = new StatementHandler(connection.prepareStatement(sql));
+		statements.put(sql, h);
+	    } else if (h.inUse) {
+		// already in use (e.g., a nested call): do not cache.
+		return connection.prepareStatement(sql);
+	    }
+	    h.inUse = true;
+	    return h.proxy;
+	}
+
+	void resetStatements() {
+	    for (StatementHandler h: statements.values()) {
+		if (h.inUse) h.reset();
+	    }
+	}
+    }
+
+    // most recently used connections are at the head.
+    private ArrayDeque<Pooled> idle = new ArrayDeque<>();
+    private ArrayList<Handler> active = new ArrayList<>();
+    // incremented each time the pool is drained
+    private int generation = 0;
+
+    /**
+     * Constructor.
+     * @param maxSize the maximum number of connections in use at
+     *        the same time
+     * @param maxIdle the time in seconds after which an idle
+     *        connection is closed
+     * @param waitTimeout the time in seconds to wait for a
+     *        connection when the maximum number is in use
+     */
+    ConnectionPool(int maxSize, long maxIdle, long waitTimeout) {
+	this.maxSize = (maxSize < 1)? 1: maxSize;
+	this.maxIdle = maxIdle * 1000L;
+	this.waitTimeout = waitTimeout * 1000L;
+    }
+
+    /**
+     * Set the maximum number of prepared statements cached for each
+     * connection.
+     * This should be called before any connections are created.
+     * @param size the maximum number of statements; 0 to disable
+     *        statement caching
+     */
+    void setStatementCacheSize(int size) {
+	statementCacheSize = (size < 0)? 0: size;
+    }
+
+    private class Handler implements InvocationHandler {
+	Pooled pooled;
+	Connection connection;
+	Connection proxy;
+	boolean closed = false;
+
+	Handler(Pooled pooled) {
+	    this.pooled = pooled;
+	    this.connection = pooled.connection;
+	    proxy = (Connection)
+		Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				       new Class<?>[] {Connection.class},
+				       this);
+	}
+
+	@Override
+	public Object invoke(Object p, Method method, Object[] args)
+	    throws Throwable
+	{
+	    String name = method.getName();
+	    int nargs = (args == null)? 0: args.length;
+	    if (name.equals("close") && nargs == 0) {
+		release(this);
+		return null;
+	    } else if (name.equals("isClosed") && nargs == 0) {
+		synchronized (ConnectionPool.this) {
+		    if (closed) return Boolean.TRUE;
+		}
+		return connection.isClosed();
+	    } else if (name.equals("equals") && nargs == 1) {
+		return p == args[0];
+	    } else if (name.equals("hashCode") && nargs == 0) {
+		return System.identityHashCode(p);
+	    } else if (name.equals("toString") && nargs == 0) {
+		return "pooled " + connection.toString();
+	    }
+	    synchronized (ConnectionPool.this) {
+		if (closed) throw new SQLException("connection closed");
+	    }
+	    if (name.equals("prepareStatement") && nargs == 1
+		&& statementCacheSize > 0) {
+		return pooled.prepareStatement((String)args[0]);
+	    }
+	    try {
+		return method.invoke(connection, args);
+	    } catch (InvocationTargetException e) {
+		throw e.getCause();
+	    }
+	}
+    }
+
+    private static void closeQuietly(Connection c) {
+	try {
+	    c.close();
+	} catch (SQLException e) {}
+    }
+
+    /**
+     * Get a connection.
+     * @param url the JDBC URL to use if a new connection is needed
+     * @param properties the properties to use if a new connection
+     *        is needed
+     * @return the connection
+     * @throws SQLException if an SQL error occurred or if no
+     *         connection became available in time
+     */
+    Connection getConnection(String url, Properties properties)
+	throws SQLException
+    {
+	Pooled pooled = null;
+	ArrayList<Connection> stale = new ArrayList<>();
+	synchronized (this) {
+	    long now = System.currentTimeMillis();
+	    long deadline = now + waitTimeout;
+	    while (active.size() >= maxSize) {
+		long delay = deadline - now;
+		if (delay <= 0) {
+		    throw new SQLException
+			("no database connection available");
+		}
+		try {
+		    wait(delay);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new SQLException("interrupted", e);
+		}
+		now = System.currentTimeMillis();
+	    }
+	    // the oldest idle connections are at the tail
+	    Iterator<Pooled> it = idle.descendingIterator();
+	    while (it.hasNext()) {
+		Pooled entry = it.next();
+		if (now - entry.lastUsed > maxIdle) {
+		    stale.add(entry.connection);
+		    it.remove();
+		} else {
+		    break;
+		}
+	    }
+	    pooled = idle.pollFirst();
+	    // reserve a slot while validating or opening a connection.
+	    active.add(null);
+	}
+	for (Connection c: stale) {
+	    closeQuietly(c);
+	}
+	Handler handler = null;
+	try {
+	    while (pooled != null) {
+		boolean valid = false;
+		try {
+		    valid = pooled.connection.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {}
+		if (valid) break;
+		closeQuietly(pooled.connection);
+		synchronized (this) {
+		    pooled = idle.pollFirst();
+		}
+	    }
+	    if (pooled == null) {
+		pooled = new Pooled(DriverManager.getConnection(url,
+								properties),
+				    statementCacheSize);
+	    }
+	    handler = new Handler(pooled);
+	    return handler.proxy;
+	} finally {
+	    synchronized (this) {
+		active.remove(null);
+		if (handler != null) {
+		    active.add(handler);
+		} else {
+		    notifyAll();
+		}
+	    }
+	}
+    }
+
+    private void release(Handler handler) {
+	int gen;
+	synchronized (this) {
+	    gen = generation;
+	    if (handler.closed) return;
+	    handler.closed = true;
+	    if (!active.remove(handler)) {
+		// the pool was drained while the connection was in use.
+		closeQuietly(handler.connection);
+		return;
+	    }
+	}
+	Connection connection = handler.connection;
+	boolean reusable = false;
+	try {
+	    if (!connection.isClosed()) {
+		handler.pooled.resetStatements();
+		if (!connection.getAutoCommit()) {
+		    connection.rollback();
+		    connection.setAutoCommit(true);
+		}
+		connection.clearWarnings();
+		reusable = true;
+	    }
+	} catch (SQLException e) {
+	    closeQuietly(connection);
+	}
+	synchronized (this) {
+	    if (reusable && gen != generation) {
+		// drained after this connection was removed from the
+		// active list.
+		closeQuietly(connection);
+		reusable = false;
+	    }
+	    if (reusable) {
+		handler.pooled.lastUsed = System.currentTimeMillis();
+		idle.addFirst(handler.pooled);
+	    }
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Determine if the pool has created any connections that have
+     * not been closed.
+     * @return true if there are open connections; false otherwise
+     */
+    synchronized boolean hasConnections() {
+	return !idle.isEmpty() || !active.isEmpty();
+    }
+
+    /**
+     * Close all connections.
+     * Connections in use are closed as well, and closing their
+     * proxies subsequently has no effect.
+     * @throws SQLException if an SQL error occurred
+     */
+    void drain() throws SQLException {
+	ArrayList<Connection> list = new ArrayList<>();
+	synchronized (this) {
+	    for (Pooled entry: idle) {
+		list.add(entry.connection);
+	    }
+	    idle.clear();
+	    for (Handler handler: active) {
+		if (handler != null) {
+		    handler.closed = true;
+		    list.add(handler.connection);
+		}
+	    }
+	    active.removeIf((h) -> h != null);
+	    generation++;
+	    notifyAll();
+	}
+	SQLException exception = null;
+	for (Connection c: list) {
+	    try {
+		c.close();
+	    } catch (SQLException e) {
+		if (exception == null) exception = e;
+	    }
+	}
+	if (exception != null) throw exception;
+    }
+}
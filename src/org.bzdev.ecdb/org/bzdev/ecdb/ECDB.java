@@ -23,7 +23,6 @@ import java.util.*;
 import java.util.regex.*;
 import javax.swing.JFrame;
 
-import org.bzdev.io.AppendableWriter;
 import org.bzdev.lang.UnexpectedExceptionError;
 import org.bzdev.net.calendar.*;
 import org.bzdev.util.CollectionScanner;
@@ -212,6 +211,89 @@ public class ECDB implements AutoCloseable {
      */
     public long getCellEmailAddrTimeout() {return cellEmailAddrTimeout;}
 
+    private static final int DEFAULT_CELL_EMAIL_THREADS = 8;
+    private static final long DEFAULT_CELL_EMAIL_LOOKUP_TIMEOUT = 10;
+    private static final int DEFAULT_CELL_EMAIL_MAX_FAILURES = 3;
+
+    // Used by CellEmailFinder.resolve
+    int cellEmailThreads = DEFAULT_CELL_EMAIL_THREADS;
+    long cellEmailLookupTimeout = DEFAULT_CELL_EMAIL_LOOKUP_TIMEOUT;
+    int cellEmailMaxFailures = DEFAULT_CELL_EMAIL_MAX_FAILURES;
+
+    CellEmailCache cellEmailCache =
+	new CellEmailCache(CellEmailCache.DEFAULT_CACHE_SIZE,
+			   CellEmailCache.DEFAULT_NEGATIVE_TIMEOUT);
+
+    /**
+     * Get the number of MMS-gateway email-address lookups that were
+     * satisfied by this ECDB instance's cache.
+     * @return the number of cache hits
+     */
+    public long getCellEmailCacheHits() {return cellEmailCache.getHits();}
+
+    /**
+     * Get the number of MMS-gateway email-address lookups that were
+     * not satisfied by this ECDB instance's cache.
+     * @return the number of cache misses
+     */
+    public long getCellEmailCacheMisses() {return cellEmailCache.getMisses();}
+
+    /**
+     * Write queued changes to the cached MMS-gateway email addresses
+     * stored in the database.
+     * These changes are also written when this ECDB instance is closed.
+     * Changes that cannot be written remain queued.
+     * @param conn the database connection
+     * @throws SQLException if an SQL error occurred
+     */
+    public void flushCellEmailCache(Connection conn) throws SQLException {
+	cellEmailCache.flush(this, conn);
+    }
+
+    LabelCache labelCache = new LabelCache(LabelCache.DEFAULT_REVALIDATE);
+
+    // updates the index statistics periodically when the configuration
+    // property maintenance.interval is positive.
+    private Timer maintenanceTimer = null;
+
+    /**
+     * Discard the cached labels and labeled IDs.
+     * The cache is updated automatically when this ECDB instance
+     * modifies the carrier, owner, location, event, or series
+     * tables. This method is useful when another process may have
+     * modified those tables and the configuration property
+     * <CODE>label.cache.revalidate</CODE> is not set.
+     */
+    public void clearLabelCache() {
+	labelCache.clear();
+    }
+
+    private static final String DEFAULT_CELL_EMAIL_REFRESH_MARGIN = "3";
+
+    /**
+     * Look up the MMS-gateway email addresses that will soon age out.
+     * Addresses found by a service provider are stored in the
+     * database and looked up again after
+     * {@link #getCellEmailAddrTimeout()} days. This method looks up
+     * addresses that will age out within the number of days given by
+     * the configuration property <CODE>cell.email.refreshMargin</CODE>
+     * (the default is 3), and updates those for which a service
+     * provider returned an address. It is intended to be run
+     * periodically (e.g., daily) so that these lookups do not occur
+     * while messages are being sent.
+     * @param conn the database connection
+     * @return the number of addresses updated
+     * @throws SQLException if an SQL error occurred
+     */
+    public int refreshCellEmail(Connection conn) throws SQLException {
+	long margin =
+	    Long.parseLong(dbProperties
+			   .getProperty("cell.email.refreshMargin",
+					DEFAULT_CELL_EMAIL_REFRESH_MARGIN)
+			   .trim());
+	return CellEmailFinder.refresh(this, conn, margin);
+    }
+
 
     private void init() throws IOException, ECDBException {
 	for (String key: getKeySet(dbProperties)) {
@@ -278,6 +360,39 @@ public class ECDB implements AutoCloseable {
 	    Long.parseLong(dbProperties
 			   .getProperty("cell.email.timeout",
 					DEFAULT_CELL_EMAIL_TIMEOUT));
+	cellEmailCache =
+	    new CellEmailCache(Integer.parseInt
+			       (dbProperties
+				.getProperty("cell.email.cacheSize",
+					     "" + CellEmailCache
+					     .DEFAULT_CACHE_SIZE).trim()),
+			       Long.parseLong
+			       (dbProperties
+				.getProperty("cell.email.negativeTimeout",
+					     "" + CellEmailCache
+					     .DEFAULT_NEGATIVE_TIMEOUT).trim()));
+	labelCache =
+	    new LabelCache(Long.parseLong
+			   (dbProperties
+			    .getProperty("label.cache.revalidate",
+					 "" + LabelCache.DEFAULT_REVALIDATE)
+			    .trim()));
+	cellEmailThreads =
+	    Integer.parseInt(dbProperties
+			     .getProperty("cell.email.threads",
+					  "" + DEFAULT_CELL_EMAIL_THREADS)
+			     .trim());
+	if (cellEmailThreads < 1) cellEmailThreads = 1;
+	cellEmailLookupTimeout =
+	    Long.parseLong(dbProperties
+			   .getProperty("cell.email.lookupTimeout",
+					"" + DEFAULT_CELL_EMAIL_LOOKUP_TIMEOUT)
+			   .trim());
+	cellEmailMaxFailures =
+	    Integer.parseInt(dbProperties
+			     .getProperty("cell.email.maxFailures",
+					  "" + DEFAULT_CELL_EMAIL_MAX_FAILURES)
+			     .trim());
 		       
 
 	String zoneIdString = dbProperties.getProperty("zoneid");
@@ -293,6 +408,39 @@ public class ECDB implements AutoCloseable {
 
 	String type = dbProperties.getProperty("type");
 	typeSuffix = (type == null)? EMPTY_STRING: "." + type;
+	String memoryString = dbProperties.getProperty("memory");
+	if (memoryString != null) {
+	    memoryString = memoryString.trim();
+	} else {
+	    memoryString = "FALSE";
+	}
+	if (memoryString.equalsIgnoreCase("true")) {
+	    inMemory = true;
+	} else if (memoryString.equalsIgnoreCase("false")) {
+	    inMemory = false;
+	} else {
+	    throw new ECDBException("memory must be TRUE or FALSE");
+	}
+	if (inMemory) {
+	    if (!typeSuffix.equals(".derby")) {
+		throw new ECDBException("in-memory databases require Derby");
+	    }
+	    String url = "jdbc:derby:memory:"
+		+ dbProperties.getProperty("dbName", "ecdb").trim();
+	    String seed = dbProperties.getProperty("memory.seed");
+	    seedFile = (seed == null || seed.trim().length() == 0)? null:
+		new File(seed.trim());
+	    if (seedFile != null && seedFile.isDirectory()) {
+		dbProperties.setProperty("createURL", url + ";createFrom="
+					 + seedFile.getAbsolutePath());
+	    } else {
+		dbProperties.setProperty("createURL", url + ";create=true");
+	    }
+	    dbProperties.setProperty("openURL", url);
+	    // dropping an in-memory database releases its memory; a
+	    // shutdown would leave it in memory until the JVM exits.
+	    dbProperties.setProperty("shutdownURL", url + ";drop=true");
+	}
 	String configRolesString = dbProperties.getProperty("configRoles");
 	if (configRolesString != null) {
 	    configRolesString = configRolesString.trim();
@@ -338,6 +486,19 @@ public class ECDB implements AutoCloseable {
 	    dbProperties.setProperty("ECSCHEMA", "EventCalendar");
 	}
 
+	String schemaVersionString = dbProperties.getProperty("schemaVersion");
+	if (schemaVersionString != null
+	    && schemaVersionString.trim().length() > 0) {
+	    try {
+		schemaVersion = Integer.parseInt(schemaVersionString.trim());
+	    } catch (NumberFormatException e) {
+		throw new ECDBException("schemaVersion", e);
+	    }
+	    if (schemaVersion < 1 || schemaVersion > MAX_SCHEMA_VERSION) {
+		throw new ECDBException("schemaVersion must be 1 or 2");
+	    }
+	}
+
 	String sqlfname = dbProperties.getProperty("file.sql.xml");
 	if (sqlfname.trim().equals("(Default)")) sqlfname = null;
 	File sqlf = (sqlfname == null)? null: new File(sqlfname);
@@ -354,6 +515,7 @@ public class ECDB implements AutoCloseable {
 		    sqlProperties.setProperty(key, tmp.getProperty(key));
 		}
 	    }
+	    resolveSQLProperties();
 	    String states = getSQLProperty("sqlShutdownState");
 	    for (String state: states.split(",")) {
 		state = state.trim();
@@ -366,36 +528,281 @@ public class ECDB implements AutoCloseable {
 		throw e;
 	    }
 	}
+	long maintenanceInterval =
+	    Long.parseLong(dbProperties
+			   .getProperty("maintenance.interval", "0")
+			   .trim());
+	if (maintenanceInterval > 0
+	    && getSQLProperty("updateStatistics") != null) {
+	    maintenanceInterval *= 1000L;
+	    maintenanceTimer = new Timer("ecdb-maintenance", true);
+	    maintenanceTimer.schedule(new TimerTask() {
+		    public void run() {
+			try {
+			    maintainTables("updateStatistics", true);
+			} catch (SQLException e) {
+			    e.printStackTrace();
+			}
+		    }
+		}, maintenanceInterval, maintenanceInterval);
+	}
     }
 
-    String getSQLProperty(String key) {
-	String result = sqlProperties.getProperty(key + typeSuffix);
-	if (result == null) result = sqlProperties.getProperty(key);
-	if (result != null) {
-	    result = result.replace("ECSCHEMA",
-				    dbProperties.getProperty("ECSCHEMA",
-							     "EventCalendar"));
-	    if (configRoles) {
-		result = result.replace("ECADMIN", ecadmin)
-		    .replace("ECOWNER", ecowner).replace("ECUSER", ecuser);
-	    }
+    static final int MAX_SCHEMA_VERSION = 2;
+    private static final String V2SUFFIX = ".v2";
+    private static final int V2SUFFIX_LEN = V2SUFFIX.length();
+
+    // With schema version 2, the attendee table's triggers that update
+    // a row just inserted or updated are not used: the statements that
+    // insert or update a row set those values directly.
+    private int schemaVersion = 1;
+
+    /**
+     * Get the version of the schema used by this ECDB instance.
+     * The version is set by the configuration property
+     * <CODE>schemaVersion</CODE>, whose default value is 1.  With
+     * version 2, the attendee table does not use the triggers that
+     * set the modification time, the email and phone timestamps, and
+     * the pre-event default when a row is inserted or when a sequence
+     * number changes. The SQL statements that insert or update rows
+     * set those values instead.
+     * @return the schema version
+     */
+    public int getSchemaVersion() {return schemaVersion;}
+
+    private Map<String,String> resolvedSQL = Collections.emptyMap();
+
+    private String resolveSQLProperty(String result) {
+	result = result.replace("ECSCHEMA",
+				dbProperties.getProperty("ECSCHEMA",
+							 "EventCalendar"));
+	if (configRoles) {
+	    result = result.replace("ECADMIN", ecadmin)
+		.replace("ECOWNER", ecowner).replace("ECUSER", ecuser);
 	}
 	return result.trim();
     }
+
+    // Resolve every SQL property once, using the variant for this
+    // database type when there is one.
+    private void resolveSQLProperties() {
+	HashMap<String,String> map = new HashMap<>();
+	int slen = typeSuffix.length();
+	for (String key: sqlProperties.stringPropertyNames()) {
+	    if (slen > 0 && key.endsWith(typeSuffix)) continue;
+	    map.put(key, resolveSQLProperty(sqlProperties.getProperty(key)));
+	}
+	if (slen > 0) {
+	    for (String key: sqlProperties.stringPropertyNames()) {
+		if (key.endsWith(typeSuffix)) {
+		    map.put(key.substring(0, key.length() - slen),
+			    resolveSQLProperty(sqlProperties.getProperty(key)));
+		}
+	    }
+	}
+	if (schemaVersion > 1) {
+	    for (String key: new ArrayList<String>(map.keySet())) {
+		if (key.endsWith(V2SUFFIX)) {
+		    map.put(key.substring(0, key.length() - V2SUFFIX_LEN),
+			    map.get(key));
+		}
+	    }
+	}
+	resolvedSQL = Collections.unmodifiableMap(map);
+    }
+
+    String getSQLProperty(String key) {
+	return resolvedSQL.get(key);
+    }
+
     private boolean isClosed = false;
     private boolean hasOpenedAConnection = false;
 
-    private HashSet<Connection> connections = new HashSet<>();
+    // true if the database is a Derby in-memory database
+    private boolean inMemory = false;
+    // a Derby database directory or a snapshot file for seeding an
+    // in-memory database
+    private File seedFile = null;
+    // true when an in-memory database has been created
+    private boolean memoryReady = false;
+    private final Object memoryLock = new Object();
+
+    /**
+     * Determine if this session uses an in-memory database.
+     * An in-memory database is used when the configuration property
+     * <CODE>memory</CODE> is <CODE>TRUE</CODE>. The database is
+     * created when the first connection is requested, and is
+     * deleted when this session is closed.
+     * @return true if the database is an in-memory database; false
+     *         otherwise
+     */
+    public boolean isInMemory() {return inMemory;}
+
+    // Create an in-memory database, its tables, and its initial data.
+    // The database is copied from memory.seed when that is a Derby
+    // database directory. Otherwise the tables are created and
+    // memory.seed, if present, is an SQL script (a file name ending in
+    // ".sql") or a file of users in the format used by importUsers
+    // (a file name ending in ".csv" or ".json").
+    private void setupMemoryDB() throws SQLException {
+	synchronized (memoryLock) {
+	    // createDB and createTables call getConnection, which
+	    // calls this method again.
+	    if (memoryReady) return;
+	    memoryReady = true;
+	    boolean ok = false;
+	    try {
+		if (seedFile != null && seedFile.isDirectory()) {
+		    try (Connection conn = getConnection(true)) {
+		    }
+		} else {
+		    createDB();
+		    createTables();
+		    if (seedFile != null) {
+			String name = seedFile.getName();
+			if (name.endsWith(".sql")) {
+			    runSQLScript(seedFile);
+			} else if (name.endsWith(".csv")
+				   || name.endsWith(".json")) {
+			    try (Connection conn = getConnection();
+				 Reader r = new InputStreamReader
+				 (new FileInputStream(seedFile), UTF8)) {
+				importUsers(conn, r, name.endsWith(".json"),
+					    System.err);
+			    }
+			} else {
+			    throw new SQLException("memory.seed: unknown "
+						   + "file type - " + name);
+			}
+		    }
+		}
+		ok = true;
+	    } catch (IOException e) {
+		throw new SQLException("could not seed in-memory database", e);
+	    } finally {
+		if (!ok) memoryReady = false;
+	    }
+	}
+    }
+
+    // Split an SQL script into statements at the semicolons that are
+    // not in quoted strings or identifiers, skipping "--" comments.
+    static ArrayList<String> splitSQL(String script) {
+	ArrayList<String> list = new ArrayList<>();
+	StringBuilder sb = new StringBuilder();
+	char quote = 0;
+	int len = script.length();
+	for (int i = 0; i < len; i++) {
+	    char ch = script.charAt(i);
+	    if (quote != 0) {
+		// a doubled quote ends and restarts the quoted text
+		if (ch == quote) quote = 0;
+		sb.append(ch);
+	    } else if (ch == '\'' || ch == '"') {
+		quote = ch;
+		sb.append(ch);
+	    } else if (ch == '-' && i+1 < len && script.charAt(i+1) == '-') {
+		while (i < len && script.charAt(i) != '\n') i++;
+		sb.append('\n');
+	    } else if (ch == ';') {
+		String stmt = sb.toString().trim();
+		if (stmt.length() > 0) list.add(stmt);
+		sb.setLength(0);
+	    } else {
+		sb.append(ch);
+	    }
+	}
+	String stmt = sb.toString().trim();
+	if (stmt.length() > 0) list.add(stmt);
+	return list;
+    }
+
+    /**
+     * Run the SQL statements in a file.
+     * The statements are separated by semicolons and are run in a
+     * single transaction. Lines starting with "--" are comments.
+     * The strings ECSCHEMA, ECADMIN, ECOWNER, and ECUSER are replaced
+     * with their values in the configuration, as they are for the
+     * statements ECDB uses.
+     * @param file the file
+     * @throws IOException if an IO error occurred
+     * @throws SQLException if an SQL error occurred
+     */
+    public void runSQLScript(File file) throws IOException, SQLException {
+	String script = new String(Files.readAllBytes(file.toPath()), UTF8);
+	CollectionScanner<String>scanner = new CollectionScanner<>();
+	ArrayList<String> statements = new ArrayList<>();
+	for (String stmt: splitSQL(script)) {
+	    statements.add(resolveSQLProperty(stmt));
+	}
+	scanner.add(statements);
+	processSQL(scanner);
+    }
+
+    private ConnectionPool pool = null;
+
+    private synchronized ConnectionPool getPool() {
+	if (pool == null) {
+	    pool = new ConnectionPool
+		(Integer.parseInt(dbProperties.getProperty
+				  ("pool.maxSize",
+				   "" + ConnectionPool.DEFAULT_MAX_SIZE)
+				  .trim()),
+		 Long.parseLong(dbProperties.getProperty
+				("pool.maxIdle",
+				 "" + ConnectionPool.DEFAULT_MAX_IDLE)
+				.trim()),
+		 Long.parseLong(dbProperties.getProperty
+				("pool.waitTimeout",
+				 "" + ConnectionPool.DEFAULT_WAIT_TIMEOUT)
+				.trim()));
+	    pool.setStatementCacheSize
+		(Integer.parseInt(dbProperties.getProperty
+				  ("pool.statementCacheSize",
+				   "" + ConnectionPool
+				   .DEFAULT_STATEMENT_CACHE_SIZE).trim()));
+	}
+	return pool;
+    }
 
     /**
      * Get a database connection.
+     * Connections are pooled: closing the connection returned by
+     * this method makes it available for reuse, and all connections
+     * are closed when this ECDB session is closed. A pooled
+     * connection's uncommitted changes, if any, are rolled back when
+     * the connection is closed. This method may be called from
+     * multiple threads.
+     * <P>
+     * The configuration-file property <CODE>pool.maxSize</CODE>
+     * (default 8) is the maximum number of connections in use at the
+     * same time; when that many are in use, this method waits for
+     * one to be closed for at most <CODE>pool.waitTimeout</CODE>
+     * seconds (default 60). An unused connection is closed after
+     * <CODE>pool.maxIdle</CODE> seconds (default 300). Each connection
+     * caches up to <CODE>pool.statementCacheSize</CODE> prepared
+     * statements (default 64), so closing a statement obtained by
+     * calling {@link Connection#prepareStatement(String)} does not
+     * discard it.
      * @return a connection
      * @throws SQLException if an SQL error occurred
      */
     public Connection getConnection() throws SQLException {
+	if (scriptConnection != null) return scriptConnection;
 	return getConnection(false);
     }
 
+    // Set by ScriptRunner while a script is running: the commands in
+    // the script share this instance and connection.
+    static ECDB scriptECDB = null;
+    boolean inScript = false;
+    Connection scriptConnection = null;
+
+    // Used by main: a script's commands use the script's ECDB instance.
+    private static ECDB openECDB(File f) throws IOException, ECDBException {
+	return (scriptECDB != null)? scriptECDB: new ECDB(f);
+    }
+
     /**
      * Determine if this session has been closed.
      * @return true if the session has been closed; false otherwise
@@ -403,39 +810,49 @@ public class ECDB implements AutoCloseable {
     public boolean isClosed() {return isClosed;}
 
     private Connection getConnection(boolean create) throws SQLException {
-	Iterator<Connection> it = connections.iterator();
-	while (it.hasNext()) {
-	    Connection c = it.next();
-	    if (c.isClosed()) {
-		it.remove();
-	    }
-	}
-	if (connections.size() > 0) {
+	if (inMemory) setupMemoryDB();
+	ConnectionPool pool = getPool();
+	if (pool.hasConnections()) {
 	    create = false;
 	}
 	String url = create? dbProperties.getProperty("createURL"):
 	    dbProperties.getProperty("openURL");
 	Connection connection =
-	    DriverManager.getConnection(url,
-					getConnectionProperties());
-	hasOpenedAConnection =  true;
-	connections.add(connection);
-	isClosed = false;
+	    pool.getConnection(url, getConnectionProperties());
+	synchronized (this) {
+	    hasOpenedAConnection =  true;
+	    isClosed = false;
+	}
 	return connection;
     }
 
     /**
      * Close this ECDB session.
+     * All pooled connections are closed before the database is
+     * shut down.
      * @throws SQLException if an SQL error occurred
      */
     public void close() throws SQLException {
-	Iterator<Connection> it = connections.iterator();
-	while (it.hasNext()) {
-	    Connection c = it.next();
-	    c.close();
-	    it.remove();
+	// closed by ScriptRunner when the script ends
+	if (inScript) return;
+	if (maintenanceTimer != null) {
+	    maintenanceTimer.cancel();
+	    maintenanceTimer = null;
+	}
+	// a failure to write the cached MMS gateway addresses is
+	// reported after the database is shut down.
+	SQLException flushException = null;
+	if (cellEmailCache.pendingCount() > 0 && hasOpenedAConnection) {
+	    try (Connection c = getConnection()) {
+		cellEmailCache.flush(this, c);
+	    } catch (SQLException e) {
+		flushException = e;
+	    }
 	}
-	if (connections.size() == 0 && hasOpenedAConnection) {
+	if (pool != null) {
+	    pool.drain();
+	}
+	if (hasOpenedAConnection) {
 	    String shutdownURL = dbProperties.getProperty("shutdownURL");
 	    if (shutdownURL != null) {
 		try {
@@ -448,8 +865,13 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
+	    synchronized (memoryLock) {
+		// the in-memory database was dropped.
+		memoryReady = false;
+	    }
 	    isClosed = true;
 	}
+	if (flushException != null) throw flushException;
     }
 
     private static final String  CKEY_START = "connection.";
@@ -561,7 +983,7 @@ public class ECDB implements AutoCloseable {
 	String shutdownURL = dbProperties.getProperty("shutdownURL");
 	Properties connectionProperties = getConnectionProperties();
 
-	if (!createURL.matches(netURLPattern)) {
+	if (!inMemory && !createURL.matches(netURLPattern)) {
 	    String[] pathComponents = dbpath.split("/");
 	    String first = pathComponents[0];
 	    String[] rest = new String[pathComponents.length-1];
@@ -833,6 +1255,39 @@ public class ECDB implements AutoCloseable {
 	    }
 	}
 
+	buffer = (schemaVersion > 1)? null: getSQLProperty("attendeeTriggers");
+	if (buffer != null) {
+	    buffer = buffer.replaceAll("\\s+", " ");
+	    if (buffer.endsWith(";")) {
+		buffer = buffer.substring(0, buffer.length() - 1);
+	    }
+	    if (buffer.length() > 0) {
+		scanner.add(Arrays.asList(buffer.split(";")));
+	    }
+	}
+
+	buffer = getSQLProperty("archiveTables");
+	if (buffer != null) {
+	    buffer = buffer.replaceAll("\\s+", " ");
+	    if (buffer.endsWith(";")) {
+		buffer = buffer.substring(0, buffer.length() - 1);
+	    }
+	    if (buffer.length() > 0) {
+		scanner.add(Arrays.asList(buffer.split(";")));
+	    }
+	}
+
+	buffer = getSQLProperty("indexes");
+	if (buffer != null) {
+	    buffer = buffer.replaceAll("\\s+", " ");
+	    if (buffer.endsWith(";")) {
+		buffer = buffer.substring(0, buffer.length() - 1);
+	    }
+	    if (buffer.length() > 0) {
+		scanner.add(Arrays.asList(buffer.split(";")));
+	    }
+	}
+
 	buffer = getSQLProperty("addCountryPrefixes");
 	if (buffer != null) {
 	    buffer = buffer.replaceAll("\\s+", " ");
@@ -877,6 +1332,327 @@ public class ECDB implements AutoCloseable {
 	processSQL(scanner);
     }
 
+    private static final Pattern indexPattern =
+	Pattern.compile("CREATE\\s+INDEX\\s+(\\w+)\\.(\\w+)"
+			+ "\\s+ON\\s+\\w+\\.(\\w+)",
+			Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Create the secondary indexes for a database's ECDB tables.
+     * These indexes are created when the tables are created. This
+     * method adds any that are missing to a database created by an
+     * earlier version of ECDB, and skips those that already exist,
+     * so it can be run more than once.
+     * @return the number of indexes created
+     * @throws SQLException if an SQL error occurred
+     */
+    public int createIndexes() throws SQLException {
+	String buffer = getSQLProperty("indexes");
+	if (buffer == null) return 0;
+	buffer = buffer.replaceAll("\\s+", " ").trim();
+	if (buffer.endsWith(";")) {
+	    buffer = buffer.substring(0, buffer.length() - 1);
+	}
+	if (buffer.length() == 0) return 0;
+	int count = 0;
+	try (Connection conn = getConnection()) {
+	    DatabaseMetaData md = conn.getMetaData();
+	    try (Statement statement = conn.createStatement()) {
+		for (String s: buffer.split(";")) {
+		    s = s.trim();
+		    Matcher matcher = indexPattern.matcher(s);
+		    if (!matcher.lookingAt()) {
+			throw new SQLException("bad index definition: " + s);
+		    }
+		    String schema = matcher.group(1);
+		    String name = matcher.group(2);
+		    String table = matcher.group(3);
+		    if (md.storesUpperCaseIdentifiers()) {
+			schema = schema.toUpperCase();
+			table = table.toUpperCase();
+		    } else if (md.storesLowerCaseIdentifiers()) {
+			schema = schema.toLowerCase();
+			table = table.toLowerCase();
+		    }
+		    boolean exists = false;
+		    try (ResultSet rs = md.getIndexInfo(null, schema, table,
+							false, true)) {
+			while (rs.next()) {
+			    String iname = rs.getString("INDEX_NAME");
+			    if (iname != null && iname.equalsIgnoreCase(name)) {
+				exists = true;
+				break;
+			    }
+			}
+		    }
+		    if (exists) continue;
+		    try {
+			statement.execute(s);
+		    } catch (SQLException e) {
+			System.err.format("%s\n", s);
+			throw e;
+		    }
+		    count++;
+		}
+	    }
+	}
+	return count;
+    }
+
+    private static final Pattern triggerPattern =
+	Pattern.compile("CREATE\\s+TRIGGER\\s+(\\w+)\\.(\\w+)",
+			Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Drop the triggers that schema version 2 does not use.
+     * When the configuration property <CODE>schemaVersion</CODE> is 2,
+     * this removes the attendee-table triggers that a database created
+     * with schema version 1 has, and skips those that do not exist, so
+     * it can be run more than once.  When the schema version is 1, this
+     * method does nothing.
+     * @return the number of triggers dropped
+     * @throws SQLException if an SQL error occurred
+     * @see #getSchemaVersion()
+     */
+    public int dropUnusedTriggers() throws SQLException {
+	if (schemaVersion < 2) return 0;
+	String buffer = getSQLProperty("attendeeTriggers");
+	if (buffer == null) return 0;
+	int count = 0;
+	try (Connection conn = getConnection()) {
+	    DatabaseMetaData md = conn.getMetaData();
+	    Matcher matcher = triggerPattern.matcher(buffer);
+	    try (PreparedStatement ps =
+		 conn.prepareStatement(getSQLProperty("triggerExists"));
+		 Statement statement = conn.createStatement()) {
+		while (matcher.find()) {
+		    String schema = matcher.group(1);
+		    String name = matcher.group(2);
+		    String qname = schema + "." + name;
+		    if (md.storesUpperCaseIdentifiers()) {
+			schema = schema.toUpperCase();
+			name = name.toUpperCase();
+		    } else if (md.storesLowerCaseIdentifiers()) {
+			schema = schema.toLowerCase();
+			name = name.toLowerCase();
+		    }
+		    ps.setString(1, schema);
+		    ps.setString(2, name);
+		    boolean exists = false;
+		    try (ResultSet rs = ps.executeQuery()) {
+			exists = rs.next() && rs.getInt(1) > 0;
+		    }
+		    if (!exists) continue;
+		    try {
+			statement.execute("DROP TRIGGER " + qname);
+		    } catch (SQLException e) {
+			System.err.format("DROP TRIGGER %s\n", qname);
+			throw e;
+		    }
+		    count++;
+		}
+	    }
+	}
+	return count;
+    }
+
+    // Run a maintenance procedure for each of the tables in the ECDB
+    // schema. The procedure's first two arguments are the schema name
+    // and the table name.  When pooled is true, the connection is
+    // always taken from the connection pool: the maintenance timer
+    // must not use a script's connection, whose transaction may be
+    // in progress.
+    private int maintainTables(String key, boolean pooled)
+	throws SQLException
+    {
+	String sql = getSQLProperty(key);
+	if (sql == null || sql.length() == 0) {
+	    throw new SQLException(key + " is not supported for this "
+				   + "database");
+	}
+	ArrayList<String> tables = new ArrayList<>();
+	try (Connection conn = pooled? getConnection(false): getConnection()) {
+	    DatabaseMetaData md = conn.getMetaData();
+	    String schema = dbProperties.getProperty("ECSCHEMA",
+						     "EventCalendar");
+	    if (md.storesUpperCaseIdentifiers()) {
+		schema = schema.toUpperCase();
+	    } else if (md.storesLowerCaseIdentifiers()) {
+		schema = schema.toLowerCase();
+	    }
+	    try (ResultSet rs = md.getTables(null, schema, "%",
+					     new String[] {"TABLE"})) {
+		while (rs.next()) {
+		    tables.add(rs.getString("TABLE_NAME"));
+		}
+	    }
+	    try (CallableStatement cs = conn.prepareCall(sql)) {
+		for (String table: tables) {
+		    cs.setString(1, schema);
+		    cs.setString(2, table);
+		    try {
+			cs.execute();
+		    } catch (SQLException e) {
+			System.err.format("%s: %s.%s\n", key, schema, table);
+			throw e;
+		    }
+		}
+	    }
+	}
+	return tables.size();
+    }
+
+    /**
+     * Update the index statistics for a database's ECDB tables.
+     * The query optimizer uses these statistics to choose query plans,
+     * and they become out of date as tables grow.  When the
+     * configuration property <CODE>maintenance.interval</CODE> is a
+     * positive number of seconds, this method is also called
+     * periodically until this ECDB instance is closed.
+     * This is currently supported for Apache Derby.
+     * @return the number of tables whose statistics were updated
+     * @throws SQLException if an SQL error occurred or if the
+     *         database does not support this operation
+     */
+    public int updateStatistics() throws SQLException {
+	return maintainTables("updateStatistics", false);
+    }
+
+    /**
+     * Compress a database's ECDB tables.
+     * Compressing a table returns unused space to the operating system
+     * and rebuilds its indexes, which updates their statistics as well.
+     * Each table is locked while it is compressed.
+     * This is currently supported for Apache Derby.
+     * @return the number of tables compressed
+     * @throws SQLException if an SQL error occurred or if the
+     *         database does not support this operation
+     */
+    public int compressTables() throws SQLException {
+	return maintainTables("compressTable", false);
+    }
+
+    private static void setExplainParameter(PreparedStatement ps,
+					    ParameterMetaData pmd,
+					    int i, String arg)
+	throws SQLException
+    {
+	int type = pmd.getParameterType(i);
+	if (arg == null) {
+	    ps.setNull(i, type);
+	    return;
+	}
+	try {
+	    switch (type) {
+	    case Types.SMALLINT:
+	    case Types.INTEGER:
+		ps.setInt(i, Integer.parseInt(arg));
+		break;
+	    case Types.BIGINT:
+		ps.setLong(i, Long.parseLong(arg));
+		break;
+	    case Types.BOOLEAN:
+		ps.setBoolean(i, Boolean.parseBoolean(arg));
+		break;
+	    case Types.DATE:
+		ps.setDate(i, java.sql.Date.valueOf(arg));
+		break;
+	    case Types.TIME:
+		ps.setTime(i, Time.valueOf(arg));
+		break;
+	    case Types.TIMESTAMP:
+		ps.setTimestamp(i, Timestamp.valueOf(arg));
+		break;
+	    default:
+		ps.setString(i, arg);
+		break;
+	    }
+	} catch (IllegalArgumentException e) {
+	    throw new SQLException("bad value for parameter " + i + ": "
+				   + arg, e);
+	}
+    }
+
+    /**
+     * Get the query plan for one of the SQL statements ECDB uses.
+     * The statement is named by its key in ECDB's SQL properties
+     * (e.g., "calendarData"), and is run with runtime statistics
+     * enabled. Its parameters are set from the arguments, converted
+     * to each parameter's type, with missing arguments set to null.
+     * The statement is run in a transaction that is rolled back, so
+     * a statement that modifies the database will have no effect.
+     * Statements whose text is a template with "%s" directives cannot
+     * be used.
+     * This is currently supported for Apache Derby.
+     * @param conn the database connection
+     * @param key the name of the SQL statement
+     * @param args the parameters for the statement
+     * @return a description of the query plan; null if none was
+     *         available
+     * @throws SQLException if an SQL error occurred, if there is no
+     *         statement with the given key, or if the database does
+     *         not support this operation
+     */
+    public String explain(Connection conn, String key, String... args)
+	throws SQLException
+    {
+	String sql = getSQLProperty(key);
+	if (sql == null) {
+	    throw new SQLException("no SQL statement named " + key);
+	}
+	if (sql.contains("%s")) {
+	    throw new SQLException("SQL statement " + key + " is a template");
+	}
+	String on = getSQLProperty("runtimeStatisticsOn");
+	String off = getSQLProperty("runtimeStatisticsOff");
+	String get = getSQLProperty("runtimeStatistics");
+	if (on == null || off == null || get == null) {
+	    throw new SQLException("explain is not supported for this "
+				   + "database");
+	}
+	boolean autoCommit = conn.getAutoCommit();
+	Savepoint savepoint = null;
+	String plan = null;
+	try (Statement statement = conn.createStatement()) {
+	    if (autoCommit) {
+		conn.setAutoCommit(false);
+	    } else {
+		// do not roll back changes made earlier in a transaction
+		savepoint = conn.setSavepoint();
+	    }
+	    statement.execute(on);
+	    try {
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		    ParameterMetaData pmd = ps.getParameterMetaData();
+		    int n = pmd.getParameterCount();
+		    for (int i = 1; i <= n; i++) {
+			setExplainParameter(ps, pmd, i,
+					    (i <= args.length)? args[i-1]:
+					    null);
+		    }
+		    if (ps.execute()) {
+			try (ResultSet rs = ps.getResultSet()) {
+			    while (rs.next());
+			}
+		    }
+		}
+		try (ResultSet rs = statement.executeQuery(get)) {
+		    if (rs.next()) plan = rs.getString(1);
+		}
+	    } finally {
+		statement.execute(off);
+	    }
+	} finally {
+	    if (savepoint == null) {
+		conn.rollback();
+	    } else {
+		conn.rollback(savepoint);
+	    }
+	    conn.setAutoCommit(autoCommit);
+	}
+	return plan;
+    }
+
     static final String AUTHROLES = "auth.roles.";
     static final int AUTHROLES_LEN = AUTHROLES.length();
 
@@ -893,6 +1669,16 @@ public class ECDB implements AutoCloseable {
 		    scanner.add(Arrays.asList(buffer.split(";")));
 		}
 	    }
+	    buffer = getSQLProperty("archiveGrants");
+	    if (buffer != null) {
+		buffer = buffer.replaceAll("\\s+", " ");
+		if (buffer.endsWith(";")) {
+		    buffer = buffer.substring(0, buffer.length() - 1);
+		}
+		if (buffer.length() > 0) {
+		    scanner.add(Arrays.asList(buffer.split(";")));
+		}
+	    }
 	    TreeSet<Integer> adminSet = new TreeSet<Integer>();
 	    TreeSet<Integer> ownerSet = new TreeSet<Integer>();
 	    TreeSet<Integer> userSet = new TreeSet<Integer>();
@@ -1002,6 +1788,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -1038,6 +1825,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -1068,6 +1856,8 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
+	    cellEmailCache.clear();
 	    conn.setAutoCommit(true);
 	}
     }
@@ -1117,6 +1907,8 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
+	    cellEmailCache.clear();
 	    conn.setAutoCommit(true);
 	}
     }
@@ -1169,6 +1961,8 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
+	    cellEmailCache.clear();
 	    conn.setAutoCommit(true);
 	}
     }
@@ -1201,6 +1995,8 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
+	    cellEmailCache.clear();
 	    conn.setAutoCommit(true);
 	}
     }
@@ -1217,13 +2013,18 @@ public class ECDB implements AutoCloseable {
     public CarrierLabeledID[] listCarrierLabeledIDs(Connection conn)
 	throws SQLException
     {
+	int gen = labelCache.validate(this, conn, Table.CARRIER);
+	CarrierLabeledID[] result =
+	    (CarrierLabeledID[]) labelCache.getList(Table.CARRIER, 0);
+	if (result != null) return result;
 	Vector<Vector<Object>> vector =
 	    listCarriers(conn, emptyStringArray, true);
-	CarrierLabeledID[] result = new CarrierLabeledID[vector.size()];
+	result = new CarrierLabeledID[vector.size()];
 	int i = 0;
 	for (Vector<Object> row: vector) {
 	    result[i++] = (CarrierLabeledID)row.get(1);
 	}
+	labelCache.putList(Table.CARRIER, gen, 0, result);
 	return result;
     }
 
@@ -1452,6 +2253,7 @@ public class ECDB implements AutoCloseable {
 		throw e;
 	    }
 	} finally {
+	    labelCache.invalidate(Table.CARRIER);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -1646,6 +2448,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    cellEmailCache.clear();
 	    if (ps != null) ps.close();
 	    if (commit) conn.setAutoCommit(true);
 	}
@@ -1762,6 +2565,37 @@ public class ECDB implements AutoCloseable {
 	}
     }
 			    
+    /**
+     * Add users listed in a CSV or JSON file.
+     * A CSV file starts with a header line naming its columns; a JSON
+     * file contains an array of objects whose keys are column names.
+     * The column names are firstName, lastName, lastNameFirst, title,
+     * emailAddr, countryPrefix, cellNumber, and either carrier (a
+     * carrier's name) or carrierID.  The input is read one row at a
+     * time, rows are inserted in batches, and each batch is committed
+     * after it is executed. Rows that are not valid or that the
+     * database rejects (e.g., duplicate users) are skipped, with one
+     * line per row written to the argument rejects.
+     * @param conn the database connection
+     * @param reader the input
+     * @param json true if the input is in JSON format; false if it
+     *        is in CSV format
+     * @param rejects an Appendable used to report rejected rows;
+     *        null if these are not reported
+     * @return the number of users added
+     * @throws IOException if an IO error occurred or the input is not
+     *         syntactically valid
+     * @throws SQLException if an SQL error occurred
+     */
+    public int importUsers(Connection conn, Reader reader, boolean json,
+			   Appendable rejects)
+	throws IOException, SQLException
+    {
+	UserImporter importer = new UserImporter(this, conn, rejects);
+	return importer.importUsers(json? new UserImporter.JSONRecords(reader):
+				    new UserImporter.CSVRecords(reader));
+    }
+
     /**
      * Delete user data.
      * @param conn the database connection
@@ -1797,12 +2631,13 @@ public class ECDB implements AutoCloseable {
      * Each deletion must be confirmed.
      * @param conn the database connection
      * @param pattern a pattern used to find users to delete
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteUserInfo(Connection conn, String pattern)
+    public int deleteUserInfo(Connection conn, String pattern)
 	throws SQLException
     {
-	deleteUserInfo(conn, pattern, false);
+	return deleteUserInfo(conn, pattern, false);
     }
 
     /**
@@ -1811,9 +2646,11 @@ public class ECDB implements AutoCloseable {
      * @param pattern a pattern used to find users to delete
      * @param force true if all matching users should be deleted; false if
      *        each deletion must be confirmed
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteUserInfo(Connection conn, String pattern, boolean force)
+    public int deleteUserInfo(Connection conn, String pattern,
+			      boolean force)
 	throws SQLException
     {
 	if (pattern == null || pattern.trim().length() == 0) {
@@ -1822,6 +2659,27 @@ public class ECDB implements AutoCloseable {
 	pattern = pattern.trim().replaceAll("\\s\\s+", "");
 	try {
 	    conn.setAutoCommit(false);
+	    if (force) {
+		int count;
+		try (PreparedStatement ps = conn.prepareStatement
+		     (getSQLProperty("deleteUserInfoMatching"))) {
+		    ps.setString(1, pattern);
+		    ps.setString(2, pattern);
+		    ps.setString(3, pattern);
+		    ps.setString(4, pattern);
+		    count = ps.executeUpdate();
+		}
+		if (count == 0) {
+		    System.err.format("User matching '%s' does not exist\n",
+				      pattern);
+		    throw new SQLException("no such entry in "
+					   + "UserInfo table: "
+					   + pattern);
+		}
+		conn.commit();
+		return count;
+	    }
+	    int count = 0;
 	    try (PreparedStatement ps1
 		 = conn.prepareStatement(getSQLProperty("findUserInfo"))) {
 		try (PreparedStatement ps2 = conn.prepareStatement
@@ -1858,6 +2716,7 @@ public class ECDB implements AutoCloseable {
 			    }
 			    ps2.setInt(1, userID);
 			    ps2.executeUpdate();
+			    count++;
 			} while (rs.next());
 		    } else {
 			System.err.format("User matching '%s' does not exist\n",
@@ -1868,6 +2727,7 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 		conn.commit();
+		return count;
 	    }
 	} catch (SQLException e) {
 	    try {
@@ -2719,6 +3579,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.OWNER);
 	    if (commit) conn.setAutoCommit(true);
 	}
 	       
@@ -2750,6 +3611,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.OWNER);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -2758,12 +3620,13 @@ public class ECDB implements AutoCloseable {
      * Delete an entry from the owner table given a search pattern.
      * @param conn the database connection
      * @param pattern a search pattern for the owner
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteOwner(Connection conn, String pattern)
+    public int deleteOwner(Connection conn, String pattern)
 	throws SQLException
     {
-	deleteOwner(conn, pattern, false);
+	return deleteOwner(conn, pattern, false);
     }
 
     /**
@@ -2773,9 +3636,10 @@ public class ECDB implements AutoCloseable {
      * @param pattern a search pattern for the owner
      * @param force true if all matching users should be deleted; false if
      *        each deletion must be confirmed
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteOwner(Connection conn, String pattern, boolean force)
+    public int deleteOwner(Connection conn, String pattern, boolean force)
 	throws SQLException
     {
 	if (pattern == null || pattern.trim().length() == 0) {
@@ -2784,6 +3648,24 @@ public class ECDB implements AutoCloseable {
 	pattern = pattern.trim().replaceAll("\\s\\s+", "").toUpperCase();
 	try {
 	    conn.setAutoCommit(false);
+	    if (force) {
+		int count;
+		try (PreparedStatement ps = conn.prepareStatement
+		     (getSQLProperty("deleteOwnersMatching"))) {
+		    ps.setString(1, pattern);
+		    count = ps.executeUpdate();
+		}
+		if (count == 0) {
+		    System.err.format("Owner matching '%s' "
+				      + "does not exist\n", pattern);
+		    throw new SQLException("no such entry in "
+					   + "Owner table: "
+					   + pattern);
+		}
+		conn.commit();
+		return count;
+	    }
+	    int count = 0;
 	    try (PreparedStatement ps1
 		 = conn.prepareStatement(getSQLProperty
 					 ("listOwnersMatching"))) {
@@ -2812,6 +3694,7 @@ public class ECDB implements AutoCloseable {
 			    }
 			    ps2.setInt(1, ownerID);
 			    ps2.executeUpdate();
+			    count++;
 			} while (rs.next());
 		    } else {
 			System.err.format("Owner matching '%s' "
@@ -2822,6 +3705,7 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 		conn.commit();
+		return count;
 	    }
 	} catch (SQLException e) {
 	    try {
@@ -2832,6 +3716,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.OWNER);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -2865,6 +3750,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.OWNER);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -2907,14 +3793,19 @@ public class ECDB implements AutoCloseable {
 	// This returns a string because JOptionPane 'show' methods
 	// do not take vectors as arguments, whereas JCombobox can
 	// handle both a vector and an array.
+	int gen = labelCache.validate(this, conn, Table.OWNER);
+	OwnerLabeledID[] results =
+	    (OwnerLabeledID[]) labelCache.getList(Table.OWNER, 0);
+	if (results != null) return results;
 	int[] ids = null;
 	Vector<Vector<Object>> rows = listOwners(conn, ids, true);
-	OwnerLabeledID[] results = new OwnerLabeledID[rows.size()];
+	results = new OwnerLabeledID[rows.size()];
 	int i = 0;
 	for (Vector<Object> row: rows) {
 	    results[i++] = new OwnerLabeledID((Integer)row.get(0),
 					      (String)row.get(1));
 	}
+	labelCache.putList(Table.OWNER, gen, 0, results);
 	return results;
     }
 
@@ -3156,7 +4047,8 @@ public class ECDB implements AutoCloseable {
 	if (label != null) {
 	    label = label.trim().replaceAll("\\s+\\s*", " ").toUpperCase();
 	    useL = true;
-	    sb.append("SET label = ?");
+	    // triggers do not update modTime when only the label changes.
+	    sb.append("SET label = ?, modTime = CURRENT_TIMESTAMP");
 	    first = false;
 	}
 	if (summary != null) {
@@ -3203,6 +4095,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.OWNER);
 	    if (commit) conn.setAutoCommit(false);
 	}
     }
@@ -3263,6 +4156,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.LOCATION);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -3293,6 +4187,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.LOCATION);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -3301,12 +4196,13 @@ public class ECDB implements AutoCloseable {
      * Delete rows from the location table given a pattern.
      * @param conn the database connection
      * @param pattern a search pattern
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteLocation(Connection conn, String pattern)
+    public int deleteLocation(Connection conn, String pattern)
 	throws SQLException
     {
-	deleteLocation(conn, pattern, false);
+	return deleteLocation(conn, pattern, false);
     }
 
     /**
@@ -3316,9 +4212,10 @@ public class ECDB implements AutoCloseable {
      * @param pattern a search pattern
      * @param force true if all entries that match the pattern should be
      *             automatically deleted; false if the deletion is interactive
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteLocation(Connection conn, String pattern, boolean force)
+    public int deleteLocation(Connection conn, String pattern, boolean force)
 	throws SQLException
     {
 	if (pattern == null || pattern.trim().length() == 0) {
@@ -3327,6 +4224,24 @@ public class ECDB implements AutoCloseable {
 	pattern = pattern.trim().replaceAll("\\s\\s+", "").toUpperCase();
 	try {
 	    conn.setAutoCommit(false);
+	    if (force) {
+		int count;
+		try (PreparedStatement ps = conn.prepareStatement
+		     (getSQLProperty("deleteLocationsMatching"))) {
+		    ps.setString(1, pattern);
+		    count = ps.executeUpdate();
+		}
+		if (count == 0) {
+		    System.err.format("Location matching '%s' "
+				      + "does not exist\n", pattern);
+		    throw new SQLException("no such entry in "
+					   + "Location table: "
+					   + pattern);
+		}
+		conn.commit();
+		return count;
+	    }
+	    int count = 0;
 	    try (PreparedStatement ps1
 		 = conn.prepareStatement(getSQLProperty
 					 ("listLocationsMatching"))) {
@@ -3357,6 +4272,7 @@ public class ECDB implements AutoCloseable {
 			    }
 			    ps2.setInt(1, locationID);
 			    ps2.executeUpdate();
+			    count++;
 			} while (rs.next());
 		    } else {
 			System.err.format("Location matching '%s' "
@@ -3367,6 +4283,7 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 		conn.commit();
+		return count;
 	    }
 	} catch (SQLException e) {
 	    try {
@@ -3377,6 +4294,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.LOCATION);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -3409,6 +4327,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.LOCATION);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -3466,16 +4385,21 @@ public class ECDB implements AutoCloseable {
 	// This returns a string because JOptionPane 'show' methods
 	// do not take vectors as arguments, whereas JCombobox can
 	// handle both a vector and an array.
+	int gen = labelCache.validate(this, conn, Table.LOCATION);
+	LocationLabeledID[] results = (LocationLabeledID[])
+	    labelCache.getList(Table.LOCATION, all? 1: 0);
+	if (results != null) return results;
 	int[] ids = null;
 	Vector<Vector<Object>> rows = listLocations(conn, ids, true);
 	int sz = rows.size();
-	LocationLabeledID[] results = new LocationLabeledID[all? (sz+1): sz];
+	results = new LocationLabeledID[all? (sz+1): sz];
 	int i = 0;
 	if (all) results[i++] = new LocationLabeledID(-1, "[ ALL ]");
 	for (Vector<Object> row: rows) {
 	    results[i++] = new LocationLabeledID((Integer)row.get(0),
 						 (String)row.get(1));
 	}
+	labelCache.putList(Table.LOCATION, gen, all? 1: 0, results);
 	return results;
     }
 
@@ -3710,7 +4634,8 @@ public class ECDB implements AutoCloseable {
 	if (label != null) {
 	    label = label.trim().replaceAll("\\s+\\s*", " ").toUpperCase();
 	    useL = true;
-	    sb.append("SET label = ?");
+	    // triggers do not update modTime when only the label changes.
+	    sb.append("SET label = ?, modTime = CURRENT_TIMESTAMP");
 	    first = false;
 	}
 	if (location != null) {
@@ -3747,6 +4672,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.LOCATION);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -4053,12 +4979,17 @@ public class ECDB implements AutoCloseable {
 	    ownerLabelSQL  = "SELECT label FROM "
 		+ schema + ".Owner WHERE ownerID = ?";
 	}
+	int gen = labelCache.validate(this, conn, Table.OWNER);
+	String label = labelCache.getLabel(Table.OWNER, ownerID);
+	if (label != null) return label;
 	try {
 	    try (PreparedStatement ps = conn.prepareStatement(ownerLabelSQL)) {
 		ps.setInt(1, ownerID);
 		try (ResultSet rs = ps.executeQuery()) {
 		    if (rs.next()) {
-			return rs.getString(1).trim();
+			label = rs.getString(1).trim();
+			labelCache.putLabel(Table.OWNER, gen, ownerID, label);
+			return label;
 		    } else {
 			return null;
 		    }
@@ -4089,13 +5020,19 @@ public class ECDB implements AutoCloseable {
 	    locationLabelSQL  = "SELECT label FROM "
 		+ schema + ".Location WHERE locationID = ?";
 	}
+	int gen = labelCache.validate(this, conn, Table.LOCATION);
+	String label = labelCache.getLabel(Table.LOCATION, locationID);
+	if (label != null) return label;
 	try {
 	    try (PreparedStatement ps =
 		 conn.prepareStatement(locationLabelSQL)) {
 		ps.setInt(1, locationID);
 		try (ResultSet rs = ps.executeQuery()) {
 		    if (rs.next()) {
-			return rs.getString(1).trim();
+			label = rs.getString(1).trim();
+			labelCache.putLabel(Table.LOCATION, gen, locationID,
+					    label);
+			return label;
 		    } else {
 			return null;
 		    }
@@ -4115,8 +5052,10 @@ public class ECDB implements AutoCloseable {
 		+ schema + ".Event AS tbl2 WHERE tbl1.ownerID = tbl2.ownerID "
 		+ "AND tbl2.eventID = ?";
 	}
+	int gen = labelCache.validate(this, conn, Table.EVENT);
+	String label = labelCache.getLabel(Table.EVENT, eventID);
+	if (label != null) return label;
 	int ownerID = -1;
-	String label = null;
 	try {
 	    try (PreparedStatement ps = conn.prepareStatement(eventLabelSQL)) {
 		ps.setInt(1, eventID);
@@ -4129,8 +5068,16 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	} catch (SQLException e) {}
-	return getOwnerLabel(conn, ownerID) + ": " + label;
+	} catch (SQLException e) {
+	    return null;
+	}
+	String ownerLabel = getOwnerLabel(conn, ownerID);
+	label = ownerLabel + ": " + label;
+	// don't cache a label whose owner label could not be read
+	if (ownerLabel != null) {
+	    labelCache.putLabel(Table.EVENT, gen, eventID, label);
+	}
+	return label;
     }
 
     private int getEventOwnerID(Connection conn, int eventID) {
@@ -4300,13 +5247,18 @@ public class ECDB implements AutoCloseable {
 		"SELECT label FROM "
 		+ schema + ".Series WHERE seriesID = ?";
 	}
+	int gen = labelCache.validate(this, conn, Table.SERIES);
+	String label = labelCache.getLabel(Table.SERIES, seriesID);
+	if (label != null) return label;
 	try {
 	    try (PreparedStatement ps =
 		 conn.prepareStatement(seriesLabelSQL)) {
 		ps.setInt(1, seriesID);
 		try (ResultSet rs = ps.executeQuery()) {
 		    if (rs.next()) {
-			return  rs.getString(1);
+			label = rs.getString(1);
+			labelCache.putLabel(Table.SERIES, gen, seriesID, label);
+			return label;
 		    } else {
 			return null;
 		    }
@@ -5297,6 +6249,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.EVENT);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -5327,6 +6280,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.EVENT);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -5335,12 +6289,13 @@ public class ECDB implements AutoCloseable {
      * Delete rows whose labels match a patter from the event table.
      * @param conn the database connection
      * @param pattern a pattern for the event's label
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteEvent(Connection conn, String pattern)
+    public int deleteEvent(Connection conn, String pattern)
 	throws SQLException
     {
-	deleteEvent(conn, pattern, false);
+	return deleteEvent(conn, pattern, false);
     }
 
     /**
@@ -5351,9 +6306,10 @@ public class ECDB implements AutoCloseable {
      * @param pattern a pattern for the event's label
      * @param force true if all entries that match the pattern should be
      *             automatically deleted; false if the deletion is interactive
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteEvent(Connection conn, String pattern, boolean force)
+    public int deleteEvent(Connection conn, String pattern, boolean force)
 	throws SQLException
     {
 	if (pattern == null || pattern.trim().length() == 0) {
@@ -5362,6 +6318,24 @@ public class ECDB implements AutoCloseable {
 	pattern = pattern.trim().replaceAll("\\s\\s+", "").toUpperCase();
 	try {
 	    conn.setAutoCommit(false);
+	    if (force) {
+		int count;
+		try (PreparedStatement ps = conn.prepareStatement
+		     (getSQLProperty("deleteEventsMatching"))) {
+		    ps.setString(1, pattern);
+		    count = ps.executeUpdate();
+		}
+		if (count == 0) {
+		    System.err.format("User matching '%s' does not exist\n",
+				      pattern);
+		    throw new SQLException("no such entry in "
+					   + "Event table: "
+					   + pattern);
+		}
+		conn.commit();
+		return count;
+	    }
+	    int count = 0;
 	    try (PreparedStatement ps1
 		 = conn.prepareStatement(getSQLProperty
 					 ("listEventsMatching"))) {
@@ -5390,6 +6364,7 @@ public class ECDB implements AutoCloseable {
 			    }
 			    ps2.setInt(1, eventID);
 			    ps2.executeUpdate();
+			    count++;
 			} while (rs.next());
 		    } else {
 			System.err.format("User matching '%s' does not exist\n",
@@ -5400,6 +6375,7 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 		conn.commit();
+		return count;
 	    }
 	} catch (SQLException e) {
 	    try {
@@ -5410,6 +6386,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.EVENT);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -5443,6 +6420,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.EVENT);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -5491,6 +6469,10 @@ public class ECDB implements AutoCloseable {
 	// This returns a string because JOptionPane 'show' methods
 	// do not take vectors as arguments, whereas JCombobox can
 	// handle both a vector and an array.
+	int gen = labelCache.validate(this, conn, Table.EVENT);
+	EventLabeledID[] results =
+	    (EventLabeledID[]) labelCache.getList(Table.EVENT, ownerID);
+	if (results != null) return results;
 	Vector<Vector<Object>> rows;
 	if (ownerID == -1) {
 	    int[] ids = null;
@@ -5498,7 +6480,7 @@ public class ECDB implements AutoCloseable {
 	} else {
 	    rows = listEventsForOwner(conn, ownerID, true);
 	}
-	EventLabeledID[] results = new EventLabeledID[rows.size()];
+	results = new EventLabeledID[rows.size()];
 	int i = 0;
 	for (Vector<Object> row: rows) {
 	    OwnerLabeledID owner = (OwnerLabeledID) row.get(1);
@@ -5506,6 +6488,7 @@ public class ECDB implements AutoCloseable {
 					      owner + ": "
 					      + (String)row.get(2));
 	}
+	labelCache.putList(Table.EVENT, gen, ownerID, results);
 	return results;
     }
 
@@ -5826,7 +6809,7 @@ public class ECDB implements AutoCloseable {
 	    label = label.trim().replaceAll("\\s+\\s*", " ").toUpperCase();
 	    useL = true;
 	    if (first == false) sb.append(", ");
-	    sb.append("label = ?");
+	    sb.append("label = ?, modTime = CURRENT_TIMESTAMP");
 	    first = false;
 	}
 	if (description != null) {
@@ -5866,6 +6849,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.EVENT);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -6105,6 +7089,298 @@ public class ECDB implements AutoCloseable {
 	return count;
     }
 
+    /**
+     * Move past event instances to the archive tables.
+     * Event instances that start before a given date are copied to
+     * the event-instance archive table, and their attendees and their
+     * links to series are copied to the attendee and series-instance
+     * archive tables. The rows are then deleted from the event-instance,
+     * attendee, and series-instance tables.  This keeps those tables
+     * limited to the current schedule. The rows are moved in batches,
+     * each in a separate transaction, so that a failure leaves each
+     * instance either archived or not archived.
+     * <P>
+     * Attendees of future instances in the same series are not
+     * affected.
+     * @param conn the database connection
+     * @param date the date; instances starting before this date are
+     *        archived
+     * @param batchSize the maximum number of instances archived in each
+     *        transaction; 0 for the default (512)
+     * @return the number of event instances archived
+     * @throws SQLException if an SQL error occurred
+     * @throws IllegalArgumentException if an argument is not allowed
+     * @see #createArchiveTables()
+     */
+    public int archiveBefore(Connection conn, LocalDate date, int batchSize)
+	throws SQLException, IllegalArgumentException
+    {
+	if (date == null) {
+	    throw new IllegalArgumentException("no date");
+	}
+	if (batchSize <= 0 || batchSize > MAX_IN_IDS) batchSize = MAX_IN_IDS;
+	String copyStatements[] = {getSQLProperty("archiveEventInstances"),
+				   getSQLProperty("archiveAttendees"),
+				   getSQLProperty("archiveSeriesInstances")};
+	String setData = getSQLProperty("setAttendeeData");
+	java.sql.Date sqlDate = java.sql.Date.valueOf(date);
+	int total = 0;
+	for (;;) {
+	    ArrayList<Integer> ids = new ArrayList<>();
+	    try (PreparedStatement ps =
+		 conn.prepareStatement(getSQLProperty("archiveCandidates"))) {
+		ps.setMaxRows(batchSize);
+		ps.setDate(1, sqlDate);
+		try (ResultSet rs = ps.executeQuery()) {
+		    while (rs.next()) {
+			ids.add(rs.getInt(1));
+		    }
+		}
+	    }
+	    int n = ids.size();
+	    if (n == 0) break;
+	    StringBuilder sb = new StringBuilder();
+	    for (int j = 0; j < n; j++) {
+		if (j > 0) sb.append(",");
+		sb.append("?");
+	    }
+	    String list = sb.toString();
+	    try {
+		conn.setAutoCommit(false);
+		for (String s: copyStatements) {
+		    try (PreparedStatement ps =
+			 conn.prepareStatement(String.format(s, list))) {
+			for (int j = 0; j < n; j++) {
+			    ps.setInt(j+1, ids.get(j));
+			}
+			ps.executeUpdate();
+		    }
+		}
+		// Deleting a series-instance row (here by the cascade from
+		// the event-instance table) deletes every attendee row for
+		// that series, so the attendee rows for the remaining
+		// instances are detached from their series and then
+		// restored.
+		ArrayList<int[]> linked = new ArrayList<>();
+		try (PreparedStatement ps = conn.prepareStatement
+		     (String.format(getSQLProperty("archiveLinkedAttendees"),
+				    list, list))) {
+		    for (int j = 0; j < n; j++) {
+			ps.setInt(j+1, ids.get(j));
+			ps.setInt(n+j+1, ids.get(j));
+		    }
+		    try (ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+			    linked.add(new int[] {rs.getInt(1), rs.getInt(2),
+						  rs.getInt(3)});
+			}
+		    }
+		}
+		if (linked.size() > 0) {
+		    try (PreparedStatement ps = conn.prepareStatement
+			 (String.format(setData, "seriesID = NULL"))) {
+			for (int[] row: linked) {
+			    ps.setInt(1, row[0]);
+			    ps.setInt(2, row[1]);
+			    ps.addBatch();
+			}
+			ps.executeBatch();
+		    }
+		}
+		for (String key: new String[] {"archiveDeleteAttendees",
+					       "archiveDeleteEventInstances"}) {
+		    try (PreparedStatement ps = conn.prepareStatement
+			 (String.format(getSQLProperty(key), list))) {
+			for (int j = 0; j < n; j++) {
+			    ps.setInt(j+1, ids.get(j));
+			}
+			ps.executeUpdate();
+		    }
+		}
+		if (linked.size() > 0) {
+		    try (PreparedStatement ps = conn.prepareStatement
+			 (String.format(setData, "seriesID = ?"))) {
+			for (int[] row: linked) {
+			    ps.setInt(1, row[2]);
+			    ps.setInt(2, row[0]);
+			    ps.setInt(3, row[1]);
+			    ps.addBatch();
+			}
+			ps.executeBatch();
+		    }
+		}
+		conn.commit();
+	    } catch (SQLException e) {
+		try {
+		    System.err.println("Rolling back archiveBefore");
+		    conn.rollback();
+		} catch (SQLException e3) {
+		    System.err.println("SQL exception during rollback");
+		}
+		throw e;
+	    } finally {
+		conn.setAutoCommit(true);
+	    }
+	    total += n;
+	    if (n < batchSize) break;
+	}
+	return total;
+    }
+
+    /**
+     * Create the archive tables for a database whose tables were
+     * created by an earlier version of ECDB.
+     * The archive tables are created when the other tables are
+     * created. This method does nothing if they already exist, so it
+     * can be run more than once.
+     * @return true if the archive tables were created; false if they
+     *         already existed
+     * @throws SQLException if an SQL error occurred
+     * @see #archiveBefore(Connection,LocalDate,int)
+     */
+    public boolean createArchiveTables() throws SQLException {
+	try (Connection conn = getConnection()) {
+	    DatabaseMetaData md = conn.getMetaData();
+	    String schema = dbProperties.getProperty("ECSCHEMA",
+						     "EventCalendar");
+	    String table = "EventInstanceArchive";
+	    if (md.storesUpperCaseIdentifiers()) {
+		schema = schema.toUpperCase();
+		table = table.toUpperCase();
+	    } else if (md.storesLowerCaseIdentifiers()) {
+		schema = schema.toLowerCase();
+		table = table.toLowerCase();
+	    }
+	    try (ResultSet rs = md.getTables(null, schema, table,
+					     new String[] {"TABLE"})) {
+		if (rs.next()) return false;
+	    }
+	}
+	CollectionScanner<String>scanner = new CollectionScanner<>();
+	for (String key: new String[] {"archiveTables", "archiveGrants"}) {
+	    if (key.equals("archiveGrants") && !configRoles) continue;
+	    String buffer = getSQLProperty(key);
+	    if (buffer != null) {
+		buffer = buffer.replaceAll("\\s+", " ");
+		if (buffer.endsWith(";")) {
+		    buffer = buffer.substring(0, buffer.length() - 1);
+		}
+		if (buffer.length() > 0) {
+		    scanner.add(Arrays.asList(buffer.split(";")));
+		}
+	    }
+	}
+	processSQL(scanner);
+	return true;
+    }
+
+    /**
+     * List archived event instances.
+     * Instances are listed in the order of their starting dates and
+     * times.
+     * @param conn the database connection
+     * @param eventID the event ID; -1 for any event
+     * @param from the earliest starting date; null for no limit
+     * @param to the date after the last starting date; null for no
+     *        limit
+     * @return the archived instances
+     * @throws SQLException if an SQL error occurred
+     * @see #archiveBefore(Connection,LocalDate,int)
+     */
+    public ArrayList<InstanceRow>
+	listArchivedInstances(Connection conn, int eventID,
+			      LocalDate from, LocalDate to)
+	throws SQLException
+    {
+	StringBuilder sb = new StringBuilder();
+	if (eventID != -1) {
+	    sb.append(" AND eventID = ?");
+	}
+	if (from != null) {
+	    sb.append(" AND startDate >= ?");
+	}
+	if (to != null) {
+	    sb.append(" AND startDate < ?");
+	}
+	String where = (sb.length() == 0)? "":
+	    "WHERE" + sb.substring(4);
+	ArrayList<InstanceRow> list = new ArrayList<>();
+	try (PreparedStatement ps = conn.prepareStatement
+	     (String.format(getSQLProperty("listArchivedInstances"), where))) {
+	    int ind = 1;
+	    if (eventID != -1) ps.setInt(ind++, eventID);
+	    if (from != null) ps.setDate(ind++, java.sql.Date.valueOf(from));
+	    if (to != null) ps.setDate(ind++, java.sql.Date.valueOf(to));
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    list.add(new InstanceRow(rs, false));
+		}
+	    }
+	}
+	return list;
+    }
+
+    /**
+     * List archived attendees.
+     * @param conn the database connection
+     * @param userID the user ID; -1 for any user
+     * @param instanceID the event-instance ID; -1 for any instance
+     * @return the archived attendees, ordered by instance ID and
+     *         then by user ID
+     * @throws SQLException if an SQL error occurred
+     * @see #archiveBefore(Connection,LocalDate,int)
+     */
+    public ArrayList<AttendeeRow>
+	listArchivedAttendees(Connection conn, int userID, int instanceID)
+	throws SQLException
+    {
+	String where = (userID == -1)?
+	    ((instanceID == -1)? "": "WHERE instanceID = ?"):
+	    ((instanceID == -1)? "WHERE userID = ?":
+	     "WHERE userID = ? AND instanceID = ?");
+	ArrayList<AttendeeRow> list = new ArrayList<>();
+	try (PreparedStatement ps = conn.prepareStatement
+	     (String.format(getSQLProperty("listArchivedAttendees"), where))) {
+	    int ind = 1;
+	    if (userID != -1) ps.setInt(ind++, userID);
+	    if (instanceID != -1) ps.setInt(ind++, instanceID);
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    list.add(new AttendeeRow(rs, false));
+		}
+	    }
+	}
+	return list;
+    }
+
+    /**
+     * List the archived event instances that belonged to a series.
+     * @param conn the database connection
+     * @param seriesID the series ID
+     * @return the event-instance IDs in ascending order
+     * @throws SQLException if an SQL error occurred
+     * @see #archiveBefore(Connection,LocalDate,int)
+     */
+    public int[] listArchivedSeriesInstances(Connection conn, int seriesID)
+	throws SQLException
+    {
+	ArrayList<Integer> list = new ArrayList<>();
+	try (PreparedStatement ps = conn.prepareStatement
+	     (getSQLProperty("listArchivedSeriesInstances"))) {
+	    ps.setInt(1, seriesID);
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    list.add(rs.getInt(1));
+		}
+	    }
+	}
+	int[] result = new int[list.size()];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = list.get(i);
+	}
+	return result;
+    }
+
     /**
      * List instance labeled IDs for the event-instance table.
      * Normally either the ownerID or the eventID (or both) will be -1:
@@ -6178,6 +7454,53 @@ public class ECDB implements AutoCloseable {
 	return results;
     }
 
+    // The event and location labels provided by the
+    // listEventInstancesLabeled query.
+    static String instanceEventLabel(ResultSet rs) throws SQLException {
+	return rs.getString("ownerLabel").trim() + ": "
+	    + rs.getString("eventLabel").trim();
+    }
+
+    static String instanceLocationLabel(ResultSet rs) throws SQLException {
+	return rs.getString("locationLabel").trim();
+    }
+
+    // Create a full row for the event-instance table from the current
+    // row of a result set for the listEventInstancesLabeled query,
+    // which provides the owner, event, and location labels so that
+    // these do not have to be looked up separately for each row.
+    private static Vector<Object> labeledInstanceRow(ResultSet rs)
+	throws SQLException
+    {
+	Vector<Object> row = new Vector<Object>(10);
+	int eventID = rs.getInt(2);
+	int locationID = rs.getInt(3);
+	row.add(rs.getObject(1));
+	row.add(new EventLabeledID(eventID, instanceEventLabel(rs)));
+	row.add(new LocationLabeledID(locationID, instanceLocationLabel(rs)));
+	row.add(rs.getObject(4));
+	row.add(rs.getObject(5));
+	row.add(rs.getObject(6));
+	row.add(rs.getObject(7));
+	row.add(rs.getObject(8));
+	row.add(rs.getObject(9));
+	String s = rs.getObject(10, String.class);
+	if (s == null) {
+	    row.add(null);
+	} else {
+	    CalendarStatus status = null;
+	    if (s.equals("TENTATIVE")) {
+		status = CalendarStatus.TENTATIVE;
+	    } else if (s.equals("CONFIRMED")) {
+		status = CalendarStatus.CONFIRMED;
+	    } else if (s.equals("CANCELLED")) {
+		status = CalendarStatus.CANCELLED;
+	    }
+	    row.add(status);
+	}
+	return row;
+    }
+
     /**
      * List rows from the event-instance table.
      * Each row of the table contains the following publiclly readable
@@ -6222,7 +7545,10 @@ public class ECDB implements AutoCloseable {
 	    useL = true;
 	}
 	String q;
-	if (first) {
+	if (full) {
+	    q = String.format(getSQLProperty("listEventInstancesLabeled"),
+			      sb.toString());
+	} else if (first) {
 	    q = getSQLProperty("listEventInstances");
 	} else {
  	    q = getSQLProperty("listEventInstancesMatching");
@@ -6242,31 +7568,7 @@ public class ECDB implements AutoCloseable {
 	    try (ResultSet rs = ps.executeQuery()) {
 		while (rs.next()) {
 		    if (full) {
-			Vector<Object> row = new Vector<Object>(2);
-			row.add(rs.getObject(1));
-			row.add(rs.getObject(2));
-			row.add(rs.getObject(3));
-			row.add(rs.getObject(4));
-			row.add(rs.getObject(5));
-			row.add(rs.getObject(6));
-			row.add(rs.getObject(7));
-			row.add(rs.getObject(8));
-			row.add(rs.getObject(9));
-			String s = rs.getObject(10, String.class);
-			if (s == null) {
-			    row.add(null);
-			} else {
-			    CalendarStatus status = null;
-			    if (s.equals("TENTATIVE")) {
-				status = CalendarStatus.TENTATIVE;
-			    } else if (s.equals("CONFIRMED")) {
-				status = CalendarStatus.CONFIRMED;
-			    } else if (s.equals("CANCELLED")) {
-				status = CalendarStatus.CANCELLED;
-			    }
-			    row.add(status);
-			}
-			vector.add(row);
+			vector.add(labeledInstanceRow(rs));
 		    } else {
 			Vector<Object> row = new Vector<Object>(1);
 			row.add(rs.getObject(1));
@@ -6275,17 +7577,6 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	}
-	if (full) {
-	    for (Vector<Object>row: vector) {
-		eventID = (Integer) row.get(1);
-		locationID = (Integer) row.get(2);
-		row.set(1, new EventLabeledID(eventID,
-					      getEventLabel(conn, eventID)));
-		row.set(2, new LocationLabeledID(locationID,
-						 getLocationLabel(conn,
-								  locationID)));
-	    }
-	}
 	return vector;
     }
 
@@ -6322,32 +7613,35 @@ public class ECDB implements AutoCloseable {
 	boolean useS = false;
 	    
 	if (ownerID != -1) {
-	    sb.append(" AND ownerID = ?");
+	    sb.append(" AND tble.ownerID = ?");
 	    first = false;
 	    useO = true;
 	}
 	if (locationID != -1) {
 	    first = false;
-	    sb.append(" AND locationID = ?");
+	    sb.append(" AND tbli.locationID = ?");
 	    useL = true;
 	}
 	if (startDate != null) {
 	    first = false;
-	    sb.append(" AND startDate = ?");
+	    sb.append(" AND tbli.startDate = ?");
 	    useSD = true;
 	}
 	if (startTime != null) {
 	    first = false;
-	    sb.append(" AND startTime = ?");
+	    sb.append(" AND tbli.startTime = ?");
 	    useST = true;
 	}
 	if (status != null) {
 	    first = false;
-	    sb.append("AND status = upper(?)");
+	    sb.append(" AND tbli.status = upper(?)");
 	    useS = true;
 	}
 	String q;
-	if (first) {
+	if (full) {
+	    q = String.format(getSQLProperty("listEventInstancesLabeled"),
+			      sb.toString());
+	} else if (first) {
 	    q = getSQLProperty("listEventInstances");
 	} else {
  	    q = getSQLProperty("listEventInstancesMatching");
@@ -6374,31 +7668,7 @@ public class ECDB implements AutoCloseable {
 	    try (ResultSet rs = ps.executeQuery()) {
 		while (rs.next()) {
 		    if (full) {
-			Vector<Object> row = new Vector<Object>(2);
-			row.add(rs.getObject(1));
-			row.add(rs.getObject(2));
-			row.add(rs.getObject(3));
-			row.add(rs.getObject(4));
-			row.add(rs.getObject(5));
-			row.add(rs.getObject(6));
-			row.add(rs.getObject(7));
-			row.add(rs.getObject(8));
-			row.add(rs.getObject(9));
-			String s = rs.getObject(10, String.class);
-			if (s == null) {
-			    row.add(null);
-			} else {
-			    CalendarStatus stat = null;
-			    if (s.equals("TENTATIVE")) {
-				stat = CalendarStatus.TENTATIVE;
-			    } else if (s.equals("CONFIRMED")) {
-				stat = CalendarStatus.CONFIRMED;
-			    } else if (s.equals("CANCELLED")) {
-				stat = CalendarStatus.CANCELLED;
-			    }
-			    row.add(stat);
-			}
-			vector.add(row);
+			vector.add(labeledInstanceRow(rs));
 		    } else {
 			Vector<Object> row = new Vector<Object>(1);
 			row.add(rs.getObject(1));
@@ -6407,17 +7677,6 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	}
-	if (full) {
-	    for (Vector<Object>row: vector) {
-		int eventID = (Integer) row.get(1);
-		locationID = (Integer) row.get(2);
-		row.set(1, new EventLabeledID(eventID,
-					      getEventLabel(conn, eventID)));
-		row.set(2, new LocationLabeledID(locationID,
-						 getLocationLabel(conn,
-								  locationID)));
-	    }
-	}
 	return vector;
     }
 
@@ -6442,9 +7701,16 @@ public class ECDB implements AutoCloseable {
 	ResultSet rs = null;
 	Vector<Vector<Object>> vector = new Vector<Vector<Object>>();
 	try {
-	    if (ids == null || ids.length == 0) {
-		ps = conn.prepareStatement(getSQLProperty("listEventInstances"));
+	    if (ids != null && ids.length == 0) {
 		ids = null;
+	    }
+	    if (full) {
+		String q = getSQLProperty("listEventInstancesLabeled");
+		ps = conn.prepareStatement
+		    (String.format(q, (ids == null)? "":
+				   " AND tbli.instanceID = ?"));
+	    } else if (ids == null) {
+		ps = conn.prepareStatement(getSQLProperty("listEventInstances"));
 	    } else {
 		ps = conn.prepareStatement
 		    (getSQLProperty("listEventInstancesByID"));
@@ -6453,31 +7719,7 @@ public class ECDB implements AutoCloseable {
 		rs = ps.executeQuery();
 		while (rs.next()) {
 		    if (full) {
-			Vector<Object> row = new Vector<Object>(2);
-			row.add(rs.getObject(1));
-			row.add(rs.getObject(2));
-			row.add(rs.getObject(3));
-			row.add(rs.getObject(4));
-			row.add(rs.getObject(5));
-			row.add(rs.getObject(6));
-			row.add(rs.getObject(7));
-			row.add(rs.getObject(8));
-			row.add(rs.getObject(9));
-			String s = rs.getObject(10, String.class);
-			if (s == null) {
-			    row.add(null);
-			} else {
-			    CalendarStatus status = null;
-			    if (s.equals("TENTATIVE")) {
-				status = CalendarStatus.TENTATIVE;
-			    } else if (s.equals("CONFIRMED")) {
-				status = CalendarStatus.CONFIRMED;
-			    } else if (s.equals("CANCELLED")) {
-				status = CalendarStatus.CANCELLED;
-			    }
-			    row.add(status);
-			}
-			vector.add(row);
+			vector.add(labeledInstanceRow(rs));
 		    } else {
 			Vector<Object> row = new Vector<Object>(1);
 			row.add(rs.getObject(1));
@@ -6491,31 +7733,7 @@ public class ECDB implements AutoCloseable {
 		    rs = ps.executeQuery();
 		    while (rs.next()) {
 			if (full) {
-			    Vector<Object> row = new Vector<Object>(2);
-			    row.add(rs.getObject(1));
-			    row.add(rs.getObject(2));
-			    row.add(rs.getObject(3));
-			    row.add(rs.getObject(4));
-			    row.add(rs.getObject(5));
-			    row.add(rs.getObject(6));
-			    row.add(rs.getObject(7));
-			    row.add(rs.getObject(8));
-			    row.add(rs.getObject(9));
-			    String s = rs.getObject(10, String.class);
-			    if (s == null) {
-				row.add(null);
-			    } else {
-				CalendarStatus status = null;
-				if (s.equals("TENTATIVE")) {
-				    status = CalendarStatus.TENTATIVE;
-				} else if (s.equals("CONFIRMED")) {
-				    status = CalendarStatus.CONFIRMED;
-				} else if (s.equals("CANCELLED")) {
-				    status = CalendarStatus.CANCELLED;
-				}
-				row.add(status);
-			    }
-			    vector.add(row);
+			    vector.add(labeledInstanceRow(rs));
 			} else {
 			    Vector<Object> row = new Vector<Object>(1);
 			    row.add(rs.getObject(1));
@@ -6528,17 +7746,6 @@ public class ECDB implements AutoCloseable {
 	} finally {
 	    if (ps != null) ps.close();
 	}
-	if (full) {
-	    for (Vector<Object>row: vector) {
-		int eventID = (Integer) row.get(1);
-		int locationID = (Integer) row.get(2);
-		row.set(1, new EventLabeledID(eventID,
-					      getEventLabel(conn, eventID)));
-		row.set(2, new LocationLabeledID(locationID,
-					       getLocationLabel(conn,
-								locationID)));
-	    }
-	}
 	return vector;
     }
 
@@ -6566,6 +7773,10 @@ public class ECDB implements AutoCloseable {
 	try {
 	    if (instanceID == -1) {
 		throw new IllegalArgumentException("instance ID missing");
+	    } else if (full) {
+		String q = getSQLProperty("listEventInstancesLabeled");
+		ps = conn.prepareStatement
+		    (String.format(q, " AND tbli.instanceID = ?"));
 	    } else {
 		ps = conn.prepareStatement
 		    (getSQLProperty("listEventInstance"));
@@ -6575,31 +7786,7 @@ public class ECDB implements AutoCloseable {
 	    rs = ps.executeQuery();
 	    while (rs.next()) {
 		if (full) {
-		    Vector<Object> row = new Vector<Object>(2);
-		    row.add(rs.getObject(1));
-		    row.add(rs.getObject(2));
-		    row.add(rs.getObject(3));
-		    row.add(rs.getObject(4));
-		    row.add(rs.getObject(5));
-		    row.add(rs.getObject(6));
-		    row.add(rs.getObject(7));
-		    row.add(rs.getObject(8));
-		    row.add(rs.getObject(9));
-		    String s = rs.getObject(10, String.class);
-		    if (s == null) {
-			row.add(null);
-		    } else {
-			CalendarStatus status = null;
-			if (s.equals("TENTATIVE")) {
-			    status = CalendarStatus.TENTATIVE;
-			} else if (s.equals("CONFIRMED")) {
-			    status = CalendarStatus.CONFIRMED;
-			} else if (s.equals("CANCELLED")) {
-			    status = CalendarStatus.CANCELLED;
-			}
-			row.add(status);
-		    }
-		    vector.add(row);
+		    vector.add(labeledInstanceRow(rs));
 		} else {
 		    Vector<Object> row = new Vector<Object>(1);
 		    row.add(rs.getObject(1));
@@ -6610,17 +7797,6 @@ public class ECDB implements AutoCloseable {
 	} finally {
 	    if (ps != null) ps.close();
 	}
-	if (full) {
-	    for (Vector<Object>row: vector) {
-		int eventID = (Integer) row.get(1);
-		int locationID = (Integer) row.get(2);
-		row.set(1, new EventLabeledID(eventID,
-					      getEventLabel(conn, eventID)));
-		row.set(2, new LocationLabeledID(locationID,
-						 getLocationLabel(conn,
-								  locationID)));
-	    }
-	}
 	return vector;
     }
 
@@ -6953,6 +8129,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.SERIES);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -6983,6 +8160,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.SERIES);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -6993,12 +8171,13 @@ public class ECDB implements AutoCloseable {
      * @param conn the database connection
      * @param ownerID  an ownerID used to search for a series
      * @param pattern a pattern used to match the label for the series
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteSeries(Connection conn, int ownerID, String pattern)
+    public int deleteSeries(Connection conn, int ownerID, String pattern)
 	throws SQLException
     {
-	deleteSeries(conn, ownerID, pattern, false);
+	return deleteSeries(conn, ownerID, pattern, false);
     }
 
     /**
@@ -7010,16 +8189,17 @@ public class ECDB implements AutoCloseable {
      *        for any label
      * @param force true if all entries that match the pattern should be
      *             automatically deleted; false if the deletion is interactive
+     * @return the number of rows deleted
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteSeries(Connection conn, int ownerID, String pattern,
-			     boolean force)
+    public int deleteSeries(Connection conn, int ownerID, String pattern,
+			    boolean force)
 	throws SQLException
     {
 	StringBuilder sb = new StringBuilder();
 	boolean first = true;
 	if (ownerID != -1) {
-	    if (first) sb.append("WHERE");
+	    if (first) sb.append("WHERE ");
 	    sb.append("ownerID = ?");
 	    first = false;
 	}
@@ -7027,7 +8207,7 @@ public class ECDB implements AutoCloseable {
 	    pattern  = null;
 	} else {
 	    pattern = pattern.trim().replaceAll("\\s\\s+", "");
-	    if (first)sb.append("WHERE");
+	    if (first)sb.append("WHERE ");
 	    else sb.append(" AND ");
 	    sb.append("TRIM(label) LIKE UPPER(?)");
 	}
@@ -7036,6 +8216,31 @@ public class ECDB implements AutoCloseable {
 				 
 	try {
 	    conn.setAutoCommit(false);
+	    if (force) {
+		int count;
+		try (PreparedStatement ps = conn.prepareStatement
+		     (String.format(getSQLProperty("deleteSeriesMatching"),
+				    sb.toString()))) {
+		    int ind = 1;
+		    if (ownerID != -1) {
+			ps.setInt(ind++, ownerID);
+		    }
+		    if (pattern != null) {
+			ps.setString(ind++, pattern);
+		    }
+		    count = ps.executeUpdate();
+		}
+		if (count == 0) {
+		    System.err.format("Series matching '%s'"
+				      + "does not exist\n", pattern);
+		    throw new SQLException("no such entry in "
+					   + "Series table: "
+					   + pattern);
+		}
+		conn.commit();
+		return count;
+	    }
+	    int count = 0;
 	    try (PreparedStatement ps1 = conn.prepareStatement(q)) {
 		try (PreparedStatement ps2 = conn.prepareStatement
 		     (getSQLProperty("deleteSeriesByID"))) {
@@ -7071,6 +8276,7 @@ public class ECDB implements AutoCloseable {
 			    }
 			    ps2.setInt(1, seriesID);
 			    ps2.executeUpdate();
+			    count++;
 			} while (rs.next());
 		    } else {
 			System.err.format("Series matching '%s'"
@@ -7082,6 +8288,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    conn.commit();
+	    return count;
 	} catch (SQLException e) {
 	    try {
 		System.err.println("Rolling back deleteSeries");
@@ -7091,6 +8298,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.SERIES);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -7124,6 +8332,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.SERIES);
 	    conn.setAutoCommit(true);
 	}
     }
@@ -7177,9 +8386,13 @@ public class ECDB implements AutoCloseable {
 	// This returns a string because JOptionPane 'show' methods
 	// do not take vectors as arguments, whereas JCombobox can
 	// handle both a vector and an array.
+	int gen = labelCache.validate(this, conn, Table.SERIES);
+	SeriesLabeledID[] results =
+	    (SeriesLabeledID[]) labelCache.getList(Table.SERIES, ownerID);
+	if (results != null) return results;
 	Vector<Vector<Object>> rows;
 	rows = listSeries(conn, ownerID, null, true);
-	SeriesLabeledID[] results = new SeriesLabeledID[rows.size()];
+	results = new SeriesLabeledID[rows.size()];
 	int i = 0;
 	if (ownerID == -1) {
 	    for (Vector<Object> row: rows) {
@@ -7193,6 +8406,7 @@ public class ECDB implements AutoCloseable {
 						   (String)row.get(2));
 	    }
 	}
+	labelCache.putList(Table.SERIES, gen, ownerID, results);
 	return results;
     }
 
@@ -7301,7 +8515,8 @@ public class ECDB implements AutoCloseable {
 		if (rs.next()) {
 		    label = rs.getString(3);
 		    if (withOwner) {
-			ownerID = rs.getInt(1);
+			// column 1 is the series ID
+			ownerID = rs.getInt(2);
 		    }
 		} else {
 		    return null;
@@ -7607,6 +8822,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    throw e;
 	} finally {
+	    labelCache.invalidate(Table.SERIES);
 	    if (commit) conn.setAutoCommit(true);
 	}
     }
@@ -7991,14 +9207,15 @@ public class ECDB implements AutoCloseable {
      * @param force true if all entries that match should be
      *        automatically deleted; false if the deletion is interactive
      *        when more than one rows were selected
+     * @return the number of rows deleted
      * @throws IllegalArgumentException if an argument is not allowed
      * @throws SQLException if an SQL error occurred
      */
-    public void deleteAttendee(Connection conn, int userID,
-			       int instanceID,
-			       String attendeeState,
-			       int seriesID,
-			       boolean force)
+    public int deleteAttendee(Connection conn, int userID,
+			      int instanceID,
+			      String attendeeState,
+			      int seriesID,
+			      boolean force)
 	throws SQLException
     {
 	StringBuilder sb = new StringBuilder();
@@ -8022,6 +9239,27 @@ public class ECDB implements AutoCloseable {
 	
 	try {
 	    conn.setAutoCommit(false);
+	    if (force) {
+		int count;
+		try (PreparedStatement ps = conn.prepareStatement
+		     (String.format(getSQLProperty("deleteAttendeesMatching"),
+				    sb.toString()))) {
+		    int ind  = 1;
+		    ps.setString(ind++, attendeeState);
+		    if (userID != -1) {
+			ps.setInt(ind++, userID);
+		    }
+		    if (instanceID != -1) {
+			ps.setInt(ind++, instanceID);
+		    }
+		    if (seriesID != -1) {
+			ps.setInt(ind++, seriesID);
+		    }
+		    count = ps.executeUpdate();
+		}
+		conn.commit();
+		return count;
+	    }
 	    ArrayList<int[]> todoList = new ArrayList<>(32);
 	    try (PreparedStatement ps1 = conn.prepareStatement(s)) {
 		int ind  = 1;
@@ -8084,6 +9322,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    conn.commit();
+	    return todoList.size();
 	} catch (SQLException e) {
 	    try {
 		System.err.println("Rolling back deleteAttendee");
@@ -8118,28 +9357,32 @@ public class ECDB implements AutoCloseable {
 	throws SQLException
     {
 	boolean first = true;
+	// column names are qualified by a table alias in the
+	// listAttendeesLabeled query.
+	String t = full? "atbl.": "";
 	StringBuilder sb = new StringBuilder();
 	if (userID != -1) {
 	    if (first) sb.append("WHERE "); else sb.append(" AND ");
 	    first = false;
-	    sb.append("userID = ?");
+	    sb.append(t + "userID = ?");
 	}
 	if (instanceID != -1) {
 	    if (first) sb.append("WHERE "); else sb.append(" AND ");
 	    first = false;
-	    sb.append("instanceID = ?");
+	    sb.append(t + "instanceID = ?");
 	}
 	if (seriesID != -1) {
 	    if (first) sb.append("WHERE "); else sb.append(" AND ");
 	    first = false;
-	    sb.append("seriesID = ?");
+	    sb.append(t + "seriesID = ?");
 	}
 	if (attendeeState != null) {
 	    if (first) sb.append("WHERE "); else sb.append(" AND ");
 	    first = false;
-	    sb.append("attendeeState = ?");
+	    sb.append(t + "attendeeState = ?");
 	}
-	String q = String.format(getSQLProperty("listAttendees"),
+	String q = String.format(getSQLProperty(full? "listAttendeesLabeled":
+						"listAttendees"),
 				 sb.toString());
 	Vector<Vector<Object>> vector = new Vector<Vector<Object>>();
 	try (PreparedStatement ps = conn.prepareStatement(q)) {
@@ -8164,30 +9407,678 @@ public class ECDB implements AutoCloseable {
 		    row.add(rs.getObject(3));
 		    row.add(rs.getObject(4));
 		    row.add(rs.getObject(5));
+		    if (full) {
+			labelAttendeeRow(row, rs);
+		    }
 		    vector.add(row);
 		}
 	    }
 	}
-	if (full) {
-	    for (Vector<Object> row: vector) {
-		userID = (Integer) row.get(0);
-		instanceID = (Integer) row.get(1);
-		attendeeState = (String) row.get(2);
-		if (attendeeState.equals("ACTIVE")) {
-		    row.set(2, AttendeeState.ACTIVE);
-		} else if (attendeeState.equals("CANCELLING")) {
-		    row.set(2, AttendeeState.CANCELLING);
-		} else if (attendeeState.equals("CANCELLED")) {
-		    row.set(2, AttendeeState.CANCELLED);
-		}
-		Boolean attendingPreEvent = (Boolean)row.get(3);
-		seriesID = (Integer)row.get(4);
-		row.set(0, getUserLabeledID(conn, userID));
-		row.set(1, getInstanceLabeledID(conn, instanceID));
-		row.set(4, getSeriesLabeledID(conn, seriesID, true));
+	return vector;
+    }
+
+    // The user, instance, and series labels provided by the
+    // listAttendeesLabeled query.  The labels match the ones that
+    // getUserLabeledID, getInstanceLabeledID, and getSeriesLabeledID
+    // would create, with a series label using the label of the
+    // series' owner.
+    static String attendeeUserLabel(ResultSet rs) throws SQLException {
+	String firstName = rs.getString("firstName");
+	String lastName = rs.getString("lastName");
+	boolean lnf = rs.getBoolean("lastNameFirst");
+	String email = rs.getString("emailAddr");
+	String cellPhone = rs.getString("cellNumber");
+	return (lnf? lastName + " " + firstName:
+		firstName + " " + lastName)
+	    + ((email != null)? " <" + email + ">":
+	       (cellPhone != null)? " (" + cellPhone + ")": "");
+    }
+
+    static String attendeeInstanceLabel(ResultSet rs) throws SQLException {
+	java.sql.Date d = rs.getDate("startDate");
+	java.sql.Time t = rs.getTime("startTime");
+	LocalDate date = (d == null)? null: d.toLocalDate();
+	LocalTime time = (t == null)? null: t.toLocalTime();
+	DateTimeFormatter tf =
+	    DateTimeFormatter.ofLocalizedTime(FormatStyle.MEDIUM);
+	return String.format("%s: %s at %s: on %s at %s",
+			     rs.getString("ownerLabel").trim(),
+			     rs.getString("eventLabel").trim(),
+			     rs.getString("locationLabel").trim(),
+			     ((date == null)? "TBD": date.format(sdf)),
+			     ((time == null)? "TBD": time.format(tf)));
+    }
+
+    // returns null if the attendee is not part of a series
+    static String attendeeSeriesLabel(ResultSet rs) throws SQLException {
+	String series = rs.getString("seriesLabel");
+	if (series == null) return null;
+	return rs.getString("seriesOwnerLabel").trim() + ": " + series;
+    }
+
+    // Replace the IDs and attendee state in a row for the attendee
+    // table with labeled IDs and an enum, using the labels provided
+    // by the listAttendeesLabeled query.
+    private static void labelAttendeeRow(Vector<Object> row, ResultSet rs)
+	throws SQLException
+    {
+	int userID = rs.getInt(1);
+	int instanceID = rs.getInt(2);
+	String attendeeState = rs.getString(3);
+	if (attendeeState.equals("ACTIVE")) {
+	    row.set(2, AttendeeState.ACTIVE);
+	} else if (attendeeState.equals("CANCELLING")) {
+	    row.set(2, AttendeeState.CANCELLING);
+	} else if (attendeeState.equals("CANCELLED")) {
+	    row.set(2, AttendeeState.CANCELLED);
+	}
+	row.set(0, new UserLabeledID(userID, attendeeUserLabel(rs)));
+	row.set(1, new InstanceLabeledID(instanceID,
+					 attendeeInstanceLabel(rs)));
+	int seriesID = rs.getInt(5);
+	if (rs.wasNull()) {
+	    row.set(4, null);
+	} else {
+	    row.set(4, new SeriesLabeledID(seriesID,
+					   attendeeSeriesLabel(rs)));
+	}
+    }
+
+    /**
+     * Handler for rows provided one at a time.
+     * A row has the same columns as the rows in the vectors returned by
+     * the corresponding list methods (e.g.,
+     * {@link ECDB#listUserInfo(Connection,int[],boolean)} for the user
+     * table).
+     * @see ECDB#listPage(Connection,Table,int,int,boolean,RowHandler)
+     * @see ECDB#forEachRow(Connection,Table,int,boolean,RowHandler)
+     */
+    @FunctionalInterface
+    public static interface RowHandler {
+	/**
+	 * Handle a row.
+	 * @param row the row
+	 * @return true if more rows should be provided; false otherwise
+	 * @throws SQLException if an SQL error occurred
+	 */
+	boolean handle(Vector<Object> row) throws SQLException;
+    }
+
+    // Handler for typed rows provided one at a time.
+    @FunctionalInterface
+    static interface TableRowHandler {
+	boolean handle(TableRow row) throws SQLException;
+    }
+
+    // Handler for the current row of a result set, used to create
+    // either vector rows or typed rows.
+    @FunctionalInterface
+    private static interface ResultHandler {
+	boolean handle(ResultSet rs) throws SQLException;
+    }
+
+    // Keeps track of a page so that forEachRow can tell when the last
+    // page was read or when a handler asked to stop.
+    private static final class PageState {
+	int count = 0;
+	boolean stopped = false;
+    }
+
+    private static String pageKey(Table table) {
+	switch (table) {
+	case CARRIER:
+	    return "listCarriersPage";
+	case USER:
+	    return "listUserInfoPage";
+	case OWNER:
+	    return "listOwnersPage";
+	case LOCATION:
+	    return "listLocationsPage";
+	case EVENT:
+	    return "listEventsPage";
+	case INSTANCE:
+	    return "listEventInstancesPage";
+	case SERIES:
+	    return "listSeriesPage";
+	default:
+	    return null;
+	}
+    }
+
+    // The owner label provided by the listEventsPage and
+    // listSeriesPage queries.
+    static String pageOwnerLabel(ResultSet rs) throws SQLException {
+	return rs.getString("ownerLabel").trim();
+    }
+
+    // Create a row for a table from the current row of a result set
+    // for a listXPage query (or the listEventInstancesLabeled query
+    // for full rows of the event-instance table).  As with the
+    // listEvents and listSeries methods, the owner column of a full
+    // event or series row is an owner-labeled ID.
+    private static Vector<Object> pageRow(Table table, ResultSet rs,
+					  boolean full)
+	throws SQLException
+    {
+	if (!full) {
+	    Vector<Object> row = new Vector<Object>(1);
+	    row.add(rs.getObject(1, Integer.class));
+	    return row;
+	}
+	Vector<Object> row = new Vector<Object>();
+	switch (table) {
+	case CARRIER:
+	    row.add(rs.getObject(1, Integer.class));
+	    row.add(rs.getObject(2, String.class));
+	    break;
+	case USER:
+	    row.add(rs.getObject(1, Integer.class));
+	    row.add(rs.getObject(2, String.class));
+	    row.add(rs.getObject(3, String.class));
+	    row.add(rs.getObject(4, Boolean.class));
+	    row.add(rs.getObject(5, String.class));
+	    row.add(rs.getObject(6, String.class));
+	    row.add(rs.getObject(7, String.class));
+	    row.add(rs.getObject(8, String.class));
+	    row.add(rs.getObject(9, String.class));
+	    String s = rs.getObject(10, String.class);
+	    UserStatus status = null;
+	    if (s.equals("ACTIVE")) {
+		status = UserStatus.ACTIVE;
+	    } else if (s.equals("NOTACTIVE")) {
+		status = UserStatus.NOTACTIVE;
+	    } else if (s.equals("CANCELLED")) {
+		status = UserStatus.CANCELLED;
+	    }
+	    row.add(status);
+	    break;
+	case OWNER:
+	    row.add(rs.getObject(1));
+	    row.add(rs.getObject(2));
+	    row.add(rs.getObject(3));
+	    row.add(rs.getObject(5));
+	    break;
+	case LOCATION:
+	    row.add(rs.getObject(1));
+	    row.add(rs.getObject(2));
+	    row.add(rs.getObject(3));
+	    break;
+	case SERIES:
+	    row.add(rs.getObject(1));
+	    row.add(new OwnerLabeledID(rs.getInt(2), pageOwnerLabel(rs)));
+	    row.add(rs.getObject(3));
+	    break;
+	case EVENT:
+	    row.add(rs.getObject(1));
+	    row.add(new OwnerLabeledID(rs.getInt(2), pageOwnerLabel(rs)));
+	    row.add(rs.getObject(3));
+	    row.add(rs.getObject(4));
+	    break;
+	case INSTANCE:
+	    return labeledInstanceRow(rs);
+	}
+	return row;
+    }
+
+    /**
+     * Provide a page of rows from a table to a handler.
+     * Rows are provided in the order of their IDs (the table's primary
+     * key), starting with the first row whose ID is larger than
+     * <CODE>afterID</CODE>.  To read the next page, call this method
+     * again with <CODE>afterID</CODE> set to the value returned.
+     * Because each page is found by its starting ID rather than by an
+     * offset, the cost of reading a page does not depend on how many
+     * pages preceded it, and rows added or deleted between calls do
+     * not cause rows to be skipped or repeated.
+     * <P>
+     * The tables supported are {@link Table#CARRIER},
+     * {@link Table#USER}, {@link Table#OWNER}, {@link Table#LOCATION},
+     * {@link Table#EVENT}, {@link Table#INSTANCE}, and
+     * {@link Table#SERIES}.  As with
+     * {@link #listUserInfo(Connection,int[],boolean)}, rows for
+     * cancelled users are not included.
+     * @param conn the database connection
+     * @param table the table
+     * @param afterID the ID of the last row of the previous page; -1
+     *        for the first page
+     * @param pageSize the maximum number of rows in the page
+     * @param full true if a row contains all of the publicly
+     *        accessible columns; false if a row contains only an ID
+     * @param handler the handler that will process each row
+     * @return the ID of the last row provided to the handler; -1 if
+     *         no rows were provided
+     * @throws IllegalArgumentException if an argument is not allowed
+     * @throws SQLException if an SQL error occurred
+     */
+    public int listPage(Connection conn, Table table, int afterID,
+			int pageSize, boolean full, RowHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	return scanPage(conn, table, afterID, pageSize, full,
+			(rs) -> handler.handle(pageRow(table, rs, full)), null);
+    }
+
+    private int scanPage(Connection conn, Table table, int afterID,
+			 int pageSize, boolean full, ResultHandler handler,
+			 PageState state)
+	throws IllegalArgumentException, SQLException
+    {
+	String key = pageKey(table);
+	if (key == null) {
+	    throw new IllegalArgumentException("table not supported: "
+					       + table);
+	}
+	if (pageSize < 1) {
+	    throw new IllegalArgumentException("page size must be positive");
+	}
+	String q = (full && table == Table.INSTANCE)?
+	    String.format(getSQLProperty("listEventInstancesLabeled"),
+			  " AND tbli.instanceID > ? ORDER BY tbli.instanceID"):
+	    getSQLProperty(key);
+	int lastID = -1;
+	try (PreparedStatement ps = conn.prepareStatement(q)) {
+	    ps.setMaxRows(pageSize);
+	    ps.setInt(1, afterID);
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    lastID = rs.getInt(1);
+		    if (state != null) state.count++;
+		    if (!handler.handle(rs)) {
+			if (state != null) state.stopped = true;
+			break;
+		    }
+		}
 	    }
 	}
-	return vector;
+	return lastID;
+    }
+
+    /**
+     * Provide all the rows from a table to a handler.
+     * The rows are read one page at a time, in the order of their IDs,
+     * using {@link #listPage(Connection,Table,int,int,boolean,RowHandler)},
+     * so that the memory used does not depend on the size of the
+     * table and the first rows are handled before later pages are
+     * read.
+     * @param conn the database connection
+     * @param table the table
+     * @param pageSize the maximum number of rows read at a time
+     * @param full true if a row contains all of the publicly
+     *        accessible columns; false if a row contains only an ID
+     * @param handler the handler that will process each row
+     * @return the number of rows provided to the handler
+     * @throws IllegalArgumentException if an argument is not allowed
+     * @throws SQLException if an SQL error occurred
+     */
+    public int forEachRow(Connection conn, Table table, int pageSize,
+			  boolean full, RowHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	return scanRows(conn, table, pageSize, full,
+			(rs) -> handler.handle(pageRow(table, rs, full)));
+    }
+
+    // Provide all the rows from a table as typed rows. When labeled is
+    // true, typed rows for the event-instance table include the event
+    // and location labels, and those for the event and series tables
+    // include the owner label.
+    int forEachTableRow(Connection conn, Table table, int pageSize,
+			boolean labeled, TableRowHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	return scanRows(conn, table, pageSize, labeled,
+			(rs) -> handler.handle(TableRow.create(table, rs,
+							       labeled)));
+    }
+
+    private int scanRows(Connection conn, Table table, int pageSize,
+			 boolean full, ResultHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	int total = 0;
+	int afterID = -1;
+	for (;;) {
+	    PageState state = new PageState();
+	    afterID = scanPage(conn, table, afterID, pageSize, full,
+			       handler, state);
+	    total += state.count;
+	    if (state.stopped || state.count < pageSize) break;
+	}
+	return total;
+    }
+
+    /**
+     * Provide rows from the attendee table to a handler.
+     * The arguments that select rows have the same meaning as those
+     * for {@link #listAttendees(Connection,int,int,int,String,boolean)}
+     * and the rows have the same columns.  Rows are provided in order
+     * of their user IDs and then their instance IDs, and are read one
+     * page at a time, with each page starting after the last
+     * (userID, instanceID) pair of the previous one.
+     * @param conn the database connection
+     * @param userID the userID for a row; -1 for any
+     * @param instanceID the instance ID for a row; -1 for any
+     * @param seriesID the ID; -1 for any
+     * @param attendeeState the state of an attendee (ACTIVE,
+     *        CANCELLING, or CANCELLED); null for any
+     * @param pageSize the maximum number of rows read at a time
+     * @param full true if integer values are represented as labeled ids
+     *        and the attendeeState as an enum; false if the values are
+     *        integers and strings .
+     * @param handler the handler that will process each row
+     * @return the number of rows provided to the handler
+     * @throws IllegalArgumentException if an argument is not allowed
+     * @throws SQLException if an SQL error occurred
+     */
+    public int forEachAttendee(Connection conn, int userID, int instanceID,
+			       int seriesID, String attendeeState,
+			       int pageSize, boolean full,
+			       RowHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	return scanAttendees(conn, userID, instanceID, seriesID,
+			     attendeeState, pageSize, full, (rs) -> {
+				 Vector<Object> row = new Vector<Object>();
+				 row.add(rs.getObject(1));
+				 row.add(rs.getObject(2));
+				 row.add(rs.getObject(3));
+				 row.add(rs.getObject(4));
+				 row.add(rs.getObject(5));
+				 if (full) {
+				     labelAttendeeRow(row, rs);
+				 }
+				 return handler.handle(row);
+			     });
+    }
+
+    // Provide rows from the attendee table as typed rows. When
+    // labeled is true, the typed rows include the user, instance,
+    // and series labels.
+    int forEachAttendeeRow(Connection conn, int userID, int instanceID,
+			   int seriesID, String attendeeState,
+			   int pageSize, boolean labeled,
+			   TableRowHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	return scanAttendees(conn, userID, instanceID, seriesID,
+			     attendeeState, pageSize, labeled,
+			     (rs) -> handler.handle(new AttendeeRow(rs,
+								    labeled)));
+    }
+
+    private int scanAttendees(Connection conn, int userID, int instanceID,
+			      int seriesID, String attendeeState,
+			      int pageSize, boolean full,
+			      ResultHandler handler)
+	throws IllegalArgumentException, SQLException
+    {
+	if (pageSize < 1) {
+	    throw new IllegalArgumentException("page size must be positive");
+	}
+	String t = full? "atbl.": "";
+	StringBuilder sb = new StringBuilder();
+	sb.append("WHERE (" + t + "userID > ? OR (" + t + "userID = ? AND "
+		  + t + "instanceID > ?))");
+	if (userID != -1) {
+	    sb.append(" AND " + t + "userID = ?");
+	}
+	if (instanceID != -1) {
+	    sb.append(" AND " + t + "instanceID = ?");
+	}
+	if (seriesID != -1) {
+	    sb.append(" AND " + t + "seriesID = ?");
+	}
+	if (attendeeState != null) {
+	    sb.append(" AND " + t + "attendeeState = ?");
+	}
+	sb.append(" ORDER BY " + t + "userID, " + t + "instanceID");
+	String q = String.format(getSQLProperty(full? "listAttendeesLabeled":
+						"listAttendees"),
+				 sb.toString());
+	int total = 0;
+	int afterUserID = -1;
+	int afterInstanceID = -1;
+	try (PreparedStatement ps = conn.prepareStatement(q)) {
+	    ps.setMaxRows(pageSize);
+	    for (;;) {
+		int ind = 1;
+		ps.setInt(ind++, afterUserID);
+		ps.setInt(ind++, afterUserID);
+		ps.setInt(ind++, afterInstanceID);
+		if (userID != -1) {
+		    ps.setInt(ind++, userID);
+		}
+		if (instanceID != -1) {
+		    ps.setInt(ind++, instanceID);
+		}
+		if (seriesID != -1) {
+		    ps.setInt(ind++, seriesID);
+		}
+		if (attendeeState != null) {
+		    ps.setString(ind++, attendeeState);
+		}
+		int count = 0;
+		try (ResultSet rs = ps.executeQuery()) {
+		    while (rs.next()) {
+			afterUserID = rs.getInt(1);
+			afterInstanceID = rs.getInt(2);
+			count++;
+			if (!handler.handle(rs)) {
+			    return total + count;
+			}
+		    }
+		}
+		total += count;
+		if (count < pageSize) break;
+	    }
+	}
+	return total;
+    }
+
+    // Read typed rows for a table using the listXPage queries.
+    private <T extends TableRow> ArrayList<T>
+	listRows(Connection conn, Table table, int afterID, int pageSize,
+		 Class<T> rowClass)
+	throws SQLException
+    {
+	ArrayList<T> list = new ArrayList<>();
+	try (PreparedStatement ps =
+	     conn.prepareStatement(getSQLProperty(pageKey(table)))) {
+	    ps.setMaxRows((pageSize < 0)? 0: pageSize);
+	    ps.setInt(1, afterID);
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    list.add(rowClass.cast(TableRow.create(table, rs,
+							   false)));
+		}
+	    }
+	}
+	return list;
+    }
+
+    /**
+     * List typed rows from the carrier table.
+     * Rows are listed in the order of their IDs.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<CarrierRow> listCarrierRows(Connection conn,
+						 int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.CARRIER, afterID, pageSize,
+			CarrierRow.class);
+    }
+
+    /**
+     * List typed rows from the user table.
+     * Rows are listed in the order of their IDs.  As with
+     * {@link #listUserInfo(Connection,int[],boolean)}, rows for
+     * cancelled users are not included.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<UserRow> listUserRows(Connection conn,
+					   int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.USER, afterID, pageSize, UserRow.class);
+    }
+
+    /**
+     * List typed rows from the owner table.
+     * Rows are listed in the order of their IDs.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<OwnerRow> listOwnerRows(Connection conn,
+					     int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.OWNER, afterID, pageSize,
+			OwnerRow.class);
+    }
+
+    /**
+     * List typed rows from the location table.
+     * Rows are listed in the order of their IDs.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<LocationRow> listLocationRows(Connection conn,
+						   int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.LOCATION, afterID, pageSize,
+			LocationRow.class);
+    }
+
+    /**
+     * List typed rows from the event table.
+     * Rows are listed in the order of their IDs.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<EventRow> listEventRows(Connection conn,
+					     int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.EVENT, afterID, pageSize,
+			EventRow.class);
+    }
+
+    /**
+     * List typed rows from the event-instance table.
+     * Rows are listed in the order of their IDs.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<InstanceRow> listInstanceRows(Connection conn,
+						   int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.INSTANCE, afterID, pageSize,
+			InstanceRow.class);
+    }
+
+    /**
+     * List typed rows from the series table.
+     * Rows are listed in the order of their IDs.
+     * @param conn the database connection
+     * @param afterID the ID of the last row of the previous page; -1
+     *        to start with the first row
+     * @param pageSize the maximum number of rows; 0 for no limit
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<SeriesRow> listSeriesRows(Connection conn,
+					       int afterID, int pageSize)
+	throws SQLException
+    {
+	return listRows(conn, Table.SERIES, afterID, pageSize,
+			SeriesRow.class);
+    }
+
+    /**
+     * List typed rows from the attendee table.
+     * The arguments have the same meaning as those for
+     * {@link #listAttendees(Connection,int,int,int,String,boolean)}.
+     * @param conn the database connection
+     * @param userID the userID for a row; -1 for any
+     * @param instanceID the instance ID for a row; -1 for any
+     * @param seriesID the ID; -1 for any
+     * @param attendeeState the state of an attendee (ACTIVE,
+     *        CANCELLING, or CANCELLED); null for any
+     * @return the rows
+     * @throws SQLException if an SQL error occurred
+     */
+    public ArrayList<AttendeeRow>
+	listAttendeeRows(Connection conn, int userID, int instanceID,
+			 int seriesID, String attendeeState)
+	throws SQLException
+    {
+	StringBuilder sb = new StringBuilder();
+	if (userID != -1) {
+	    sb.append(" AND userID = ?");
+	}
+	if (instanceID != -1) {
+	    sb.append(" AND instanceID = ?");
+	}
+	if (seriesID != -1) {
+	    sb.append(" AND seriesID = ?");
+	}
+	if (attendeeState != null) {
+	    sb.append(" AND attendeeState = ?");
+	}
+	String where = (sb.length() == 0)? "":
+	    "WHERE " + sb.substring(" AND ".length());
+	String q = String.format(getSQLProperty("listAttendees"), where);
+	ArrayList<AttendeeRow> list = new ArrayList<>();
+	try (PreparedStatement ps = conn.prepareStatement(q)) {
+	    int ind = 1;
+	    if (userID != -1) {
+		ps.setInt(ind++, userID);
+	    }
+	    if (instanceID != -1) {
+		ps.setInt(ind++, instanceID);
+	    }
+	    if (seriesID != -1) {
+		ps.setInt(ind++, seriesID);
+	    }
+	    if (attendeeState != null) {
+		ps.setString(ind++, attendeeState);
+	    }
+	    try (ResultSet rs = ps.executeQuery()) {
+		while (rs.next()) {
+		    list.add(new AttendeeRow(rs, false));
+		}
+	    }
+	}
+	return list;
     }
 
     /**
@@ -8753,9 +10644,9 @@ public class ECDB implements AutoCloseable {
 	    }
 	}
 	String qemail = String.format(getSQLProperty("setAttendeeData"),
-				      "emailSeqno = ?");
+				      getSQLProperty("setEmailSeqno"));
 	String qphone = String.format(getSQLProperty("setAttendeeData"),
-				      "phoneSeqno = ?");
+				      getSQLProperty("setPhoneSeqno"));
 	boolean needCommit = false;
 	PreparedStatement ps1 = null;
 	PreparedStatement ps2 = null;
@@ -9144,33 +11035,120 @@ public class ECDB implements AutoCloseable {
 	}
     }
 
+    // maximum number of IDs in an SQL IN list
+    private static final int MAX_IN_IDS = 512;
+
     /**
-     * User status.
-     * Provided as a type-safe alternative to string values in the
-     * databasse.
+     * Apply a series to multiple users.
+     * @param conn the database connection
+     * @param userIDs the user IDs
+     * @param seriesID the series ID
+     * @throws SQLException if an SQL error occurred
+     * @throws IllegalArgumentException if an argument is not allowed
      */
-    public static enum UserStatus {
-	/**
-	 * The user is active.
-	 */
-	ACTIVE,
-	/**
-	 * The user is not active.
-	 */
-	NOTACTIVE,
-	/**
-	 * The user has been cancelled.
-	 * This option is provided so that the user ID
-	 * can be reused. Alternatively a clean-up process
-	 * can delete these entries from the user table.
-	 */
-	CANCELLED
+    public void applySeries(Connection conn, int[] userIDs, int seriesID)
+	throws SQLException, IllegalArgumentException
+    {
+	applySeries(conn, userIDs, seriesID, true);
     }
 
     /**
-     * Calendar status.
-     * Provided as a type-safe alternative to string values in the
-     * database.  The values match those provided in RFC 5545.
+     * Apply a series to multiple users, indicating if database changes
+     * should be committed.
+     * This has the same effect as calling
+     * {@link #applySeries(Connection,int,int,boolean)} for each user,
+     * but the attendee table is updated with three statements for
+     * each group of up to 512 users rather than three statements for
+     * each user.  An instance that a user already attends through
+     * another series or directly is not added again.
+     * @param conn the database connection
+     * @param userIDs the user IDs
+     * @param seriesID the series ID
+     * @param commit true if the new changes should be committed; false
+     *        otherwise
+     * @throws SQLException if an SQL error occurred
+     * @throws IllegalArgumentException if an argument is not allowed
+     */
+    public void applySeries(Connection conn, int[] userIDs, int seriesID,
+			    boolean commit)
+	throws SQLException, IllegalArgumentException
+    {
+	if (userIDs == null || userIDs.length == 0) {
+	    throw new IllegalArgumentException("no userIDs");
+	}
+	for (int userID: userIDs) {
+	    if (userID == -1) {
+		throw new IllegalArgumentException("no userID");
+	    }
+	}
+	if (seriesID == -1) {
+	    throw new IllegalArgumentException("no seriesID");
+	}
+	String statements[] = {getSQLProperty("applySeriesUsers1"),
+			       getSQLProperty("applySeriesUsers2"),
+			       getSQLProperty("applySeriesUsers3")};
+	try {
+	    if (commit) conn.setAutoCommit(false);
+	    for (int i = 0; i < userIDs.length; i += MAX_IN_IDS) {
+		int n = Math.min(MAX_IN_IDS, userIDs.length - i);
+		StringBuilder sb = new StringBuilder();
+		for (int j = 0; j < n; j++) {
+		    if (j > 0) sb.append(",");
+		    sb.append("?");
+		}
+		String list = sb.toString();
+		for (String s: statements) {
+		    try (PreparedStatement ps =
+			 conn.prepareStatement(String.format(s, list))) {
+			ps.setInt(1, seriesID);
+			for (int j = 0; j < n; j++) {
+			    ps.setInt(j+2, userIDs[i+j]);
+			}
+			ps.executeUpdate();
+		    }
+		}
+	    }
+	    if (commit) conn.commit();
+	} catch (SQLException e) {
+	    try {
+		System.err.println("Rolling back applySeries");
+		if (commit) conn.rollback();
+	    } catch (SQLException e3) {
+		System.err.println("SQL exception during rollback");
+	    }
+	    throw e;
+	} finally {
+	    if (commit) conn.setAutoCommit(true);
+	}
+    }
+
+    /**
+     * User status.
+     * Provided as a type-safe alternative to string values in the
+     * databasse.
+     */
+    public static enum UserStatus {
+	/**
+	 * The user is active.
+	 */
+	ACTIVE,
+	/**
+	 * The user is not active.
+	 */
+	NOTACTIVE,
+	/**
+	 * The user has been cancelled.
+	 * This option is provided so that the user ID
+	 * can be reused. Alternatively a clean-up process
+	 * can delete these entries from the user table.
+	 */
+	CANCELLED
+    }
+
+    /**
+     * Calendar status.
+     * Provided as a type-safe alternative to string values in the
+     * database.  The values match those provided in RFC 5545.
      */
     public static enum CalendarStatus {
 	/**
@@ -9421,18 +11399,1091 @@ public class ECDB implements AutoCloseable {
     }
 
 
-    /**
-     * LabeledID class representing a series.
-     */
-    public static class SeriesLabeledID extends LabeledID {
+    /**
+     * LabeledID class representing a series.
+     */
+    public static class SeriesLabeledID extends LabeledID {
+	/**
+	 * Constructor.
+	 * @param id the ID
+	 * @param label the label
+	 */
+	public SeriesLabeledID(int id, String label) {
+	    super(id, label);
+	}
+    }
+
+    /**
+     * Base class for typed rows.
+     * A typed row holds the publicly readable columns of a row in one
+     * of the ECDB tables, using primitive types for integer and boolean
+     * columns.  Typed rows are immutable, and take considerably less
+     * space than the {@link Vector} rows returned by the list methods
+     * (e.g., {@link ECDB#listUserInfo(Connection,int[],boolean)}).  The
+     * methods {@link #toVector()} and the static <CODE>fromVector</CODE>
+     * methods of each subclass convert between the two representations.
+     * When there is no ID (e.g., when an attendee row does not refer to
+     * a series), the value -1 is used.
+     */
+    public static abstract class TableRow {
+	TableRow() {}
+
+	// Get an ID from a column of a vector row, which may contain
+	// either an Integer or a labeled ID.
+	static int intValue(Object o) {
+	    if (o == null) return -1;
+	    if (o instanceof LabeledID) return ((LabeledID) o).id;
+	    return ((Number) o).intValue();
+	}
+
+	// Get an enum from a column of a vector row, which may contain
+	// either an enum constant or its name.
+	static <E extends Enum<E>> E enumValue(Class<E> c, Object o) {
+	    if (o == null) return null;
+	    if (c.isInstance(o)) return c.cast(o);
+	    return Enum.valueOf(c, o.toString().trim());
+	}
+
+	static void checkSize(Vector<Object> row, int n) {
+	    if (row == null || row.size() < n) {
+		throw new IllegalArgumentException("not a full row");
+	    }
+	}
+
+	// The string printed by the ecdb program for an ID, shown as
+	// for LabeledID.toFullString() when there is a label.
+	static String idString(int id, String label) {
+	    if (id == -1) return "null";
+	    return (label == null)? Integer.toString(id):
+		String.format("%d (%s)", id, label);
+	}
+
+	// Create a typed row from the current row of a result set for
+	// the listXPage queries or the listAttendees query, or, when
+	// labeled is true, the listEventInstancesLabeled or
+	// listAttendeesLabeled query for the event-instance and attendee
+	// tables.  When labeled is true, event and series rows include
+	// the owner label provided by their listXPage queries.
+	static TableRow create(Table table, ResultSet rs, boolean labeled)
+	    throws SQLException
+	{
+	    switch (table) {
+	    case CARRIER:
+		return new CarrierRow(rs);
+	    case USER:
+		return new UserRow(rs);
+	    case OWNER:
+		return new OwnerRow(rs);
+	    case LOCATION:
+		return new LocationRow(rs);
+	    case EVENT:
+		return new EventRow(rs, labeled);
+	    case INSTANCE:
+		return new InstanceRow(rs, labeled);
+	    case SERIES:
+		return new SeriesRow(rs, labeled);
+	    case ATTENDEE:
+		return new AttendeeRow(rs, labeled);
+	    default:
+		throw new IllegalArgumentException("table not supported: "
+						   + table);
+	    }
+	}
+
+	/**
+	 * Get the table for this row.
+	 * @return the table
+	 */
+	public abstract Table getTable();
+
+	/**
+	 * Get a vector containing the columns of this row.
+	 * The vector contains the same columns, in the same order, as
+	 * the full rows provided by the corresponding list method, with
+	 * IDs represented as integers rather than labeled IDs.
+	 * @return the vector
+	 */
+	public abstract Vector<Object> toVector();
+
+	// Get the number of columns.
+	abstract int size();
+
+	// Get the string printed by the ecdb program for a column, with
+	// the columns in the same order as for toVector().
+	abstract String getString(int column);
+
+	static IllegalArgumentException badColumn() {
+	    return new IllegalArgumentException("column index out of range");
+	}
+    }
+
+    /**
+     * Typed row for the carrier table.
+     */
+    public static final class CarrierRow extends TableRow {
+	final int carrierID;
+	final String carrier;
+
+	CarrierRow(ResultSet rs) throws SQLException {
+	    carrierID = rs.getInt(1);
+	    carrier = rs.getString(2);
+	}
+
+	/**
+	 * Constructor.
+	 * @param carrierID the carrier ID
+	 * @param carrier the carrier name
+	 */
+	public CarrierRow(int carrierID, String carrier) {
+	    this.carrierID = carrierID;
+	    this.carrier = carrier;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listCarriers(Connection,int[],boolean)} with its
+	 * last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static CarrierRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 2);
+	    return new CarrierRow(intValue(row.get(0)), (String)row.get(1));
+	}
+
+	@Override
+	public Table getTable() {return Table.CARRIER;}
+
+	@Override
+	int size() {return 2;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(carrierID);
+	    case 1: return String.valueOf(carrier);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(2);
+	    row.add(carrierID);
+	    row.add(carrier);
+	    return row;
+	}
+
+	/**
+	 * Get the carrier ID.
+	 * @return the carrier ID
+	 */
+	public int getCarrierID() {return carrierID;}
+
+	/**
+	 * Get the carrier name.
+	 * @return the carrier name
+	 */
+	public String getCarrier() {return carrier;}
+    }
+
+    /**
+     * Typed row for the user table.
+     */
+    public static final class UserRow extends TableRow {
+	final int userID;
+	final String firstName;
+	final String lastName;
+	final boolean lastNameFirst;
+	final String title;
+	final String emailAddr;
+	final String countryPrefix;
+	final String cellNumber;
+	final String carrier;
+	final UserStatus status;
+
+	UserRow(ResultSet rs) throws SQLException {
+	    userID = rs.getInt(1);
+	    firstName = rs.getString(2);
+	    lastName = rs.getString(3);
+	    lastNameFirst = rs.getBoolean(4);
+	    title = rs.getString(5);
+	    emailAddr = rs.getString(6);
+	    countryPrefix = rs.getString(7);
+	    cellNumber = rs.getString(8);
+	    carrier = rs.getString(9);
+	    status = enumValue(UserStatus.class, rs.getString(10));
+	}
+
+	/**
+	 * Constructor.
+	 * @param userID the user ID
+	 * @param firstName the user's first name
+	 * @param lastName the user's last name
+	 * @param lastNameFirst true if the last name is shown first
+	 * @param title the user's title
+	 * @param emailAddr the user's email address
+	 * @param countryPrefix the country prefix for the user's cell phone
+	 * @param cellNumber the user's cell-phone number
+	 * @param carrier the name of the user's wireless carrier
+	 * @param status the user's status
+	 */
+	public UserRow(int userID, String firstName, String lastName,
+		       boolean lastNameFirst, String title, String emailAddr,
+		       String countryPrefix, String cellNumber,
+		       String carrier, UserStatus status)
+	{
+	    this.userID = userID;
+	    this.firstName = firstName;
+	    this.lastName = lastName;
+	    this.lastNameFirst = lastNameFirst;
+	    this.title = title;
+	    this.emailAddr = emailAddr;
+	    this.countryPrefix = countryPrefix;
+	    this.cellNumber = cellNumber;
+	    this.carrier = carrier;
+	    this.status = status;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listUserInfo(Connection,int[],boolean)} with its
+	 * last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static UserRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 10);
+	    Boolean lnf = (Boolean) row.get(3);
+	    return new UserRow(intValue(row.get(0)),
+			       (String) row.get(1), (String) row.get(2),
+			       (lnf != null && lnf),
+			       (String) row.get(4), (String) row.get(5),
+			       (String) row.get(6), (String) row.get(7),
+			       (String) row.get(8),
+			       enumValue(UserStatus.class, row.get(9)));
+	}
+
+	@Override
+	public Table getTable() {return Table.USER;}
+
+	@Override
+	int size() {return 10;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(userID);
+	    case 1: return String.valueOf(firstName);
+	    case 2: return String.valueOf(lastName);
+	    case 3: return String.valueOf(lastNameFirst);
+	    case 4: return String.valueOf(title);
+	    case 5: return String.valueOf(emailAddr);
+	    case 6: return String.valueOf(countryPrefix);
+	    case 7: return String.valueOf(cellNumber);
+	    case 8: return String.valueOf(carrier);
+	    case 9: return String.valueOf(status);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(10);
+	    row.add(userID);
+	    row.add(firstName);
+	    row.add(lastName);
+	    row.add(lastNameFirst);
+	    row.add(title);
+	    row.add(emailAddr);
+	    row.add(countryPrefix);
+	    row.add(cellNumber);
+	    row.add(carrier);
+	    row.add(status);
+	    return row;
+	}
+
+	/**
+	 * Get the user ID.
+	 * @return the user ID
+	 */
+	public int getUserID() {return userID;}
+
+	/**
+	 * Get the user's first name.
+	 * @return the first name; null if there is none
+	 */
+	public String getFirstName() {return firstName;}
+
+	/**
+	 * Get the user's last name.
+	 * @return the last name; null if there is none
+	 */
+	public String getLastName() {return lastName;}
+
+	/**
+	 * Determine if the user's last name is shown first.
+	 * @return true if the last name is shown first; false otherwise
+	 */
+	public boolean getLastNameFirst() {return lastNameFirst;}
+
+	/**
+	 * Get the user's title.
+	 * @return the title; null if there is none
+	 */
+	public String getTitle() {return title;}
+
+	/**
+	 * Get the user's email address.
+	 * @return the email address; null if there is none
+	 */
+	public String getEmailAddr() {return emailAddr;}
+
+	/**
+	 * Get the country prefix for the user's cell phone.
+	 * @return the country prefix
+	 */
+	public String getCountryPrefix() {return countryPrefix;}
+
+	/**
+	 * Get the user's cell-phone number.
+	 * @return the cell-phone number; null if there is none
+	 */
+	public String getCellNumber() {return cellNumber;}
+
+	/**
+	 * Get the name of the user's wireless carrier.
+	 * @return the carrier name
+	 */
+	public String getCarrier() {return carrier;}
+
+	/**
+	 * Get the user's status.
+	 * @return the status
+	 */
+	public UserStatus getStatus() {return status;}
+    }
+
+    /**
+     * Typed row for the owner table.
+     */
+    public static final class OwnerRow extends TableRow {
+	final int ownerID;
+	final String label;
+	final String summary;
+	final String idomain;
+
+	OwnerRow(ResultSet rs) throws SQLException {
+	    ownerID = rs.getInt(1);
+	    label = rs.getString(2);
+	    summary = rs.getString(3);
+	    idomain = rs.getString(5);
+	}
+
+	/**
+	 * Constructor.
+	 * @param ownerID the owner ID
+	 * @param label the owner's label
+	 * @param summary the owner's summary
+	 * @param idomain the owner's Internet domain name
+	 */
+	public OwnerRow(int ownerID, String label, String summary,
+			String idomain)
+	{
+	    this.ownerID = ownerID;
+	    this.label = label;
+	    this.summary = summary;
+	    this.idomain = idomain;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listOwners(Connection,int[],boolean)} with its
+	 * last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static OwnerRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 4);
+	    return new OwnerRow(intValue(row.get(0)), (String) row.get(1),
+				(String) row.get(2), (String) row.get(3));
+	}
+
+	@Override
+	public Table getTable() {return Table.OWNER;}
+
+	@Override
+	int size() {return 4;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(ownerID);
+	    case 1: return String.valueOf(label);
+	    case 2: return String.valueOf(summary);
+	    case 3: return String.valueOf(idomain);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(4);
+	    row.add(ownerID);
+	    row.add(label);
+	    row.add(summary);
+	    row.add(idomain);
+	    return row;
+	}
+
+	/**
+	 * Get the owner ID.
+	 * @return the owner ID
+	 */
+	public int getOwnerID() {return ownerID;}
+
+	/**
+	 * Get the owner's label.
+	 * @return the label
+	 */
+	public String getLabel() {return label;}
+
+	/**
+	 * Get the owner's summary.
+	 * @return the summary
+	 */
+	public String getSummary() {return summary;}
+
+	/**
+	 * Get the owner's Internet domain name.
+	 * @return the domain name
+	 */
+	public String getIdomain() {return idomain;}
+    }
+
+    /**
+     * Typed row for the location table.
+     */
+    public static final class LocationRow extends TableRow {
+	final int locationID;
+	final String label;
+	final String location;
+
+	LocationRow(ResultSet rs) throws SQLException {
+	    locationID = rs.getInt(1);
+	    label = rs.getString(2);
+	    location = rs.getString(3);
+	}
+
+	/**
+	 * Constructor.
+	 * @param locationID the location ID
+	 * @param label the location's label
+	 * @param location the location (e.g., an address)
+	 */
+	public LocationRow(int locationID, String label, String location) {
+	    this.locationID = locationID;
+	    this.label = label;
+	    this.location = location;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listLocations(Connection,int[],boolean)} with its
+	 * last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static LocationRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 3);
+	    return new LocationRow(intValue(row.get(0)), (String) row.get(1),
+				   (String) row.get(2));
+	}
+
+	@Override
+	public Table getTable() {return Table.LOCATION;}
+
+	@Override
+	int size() {return 3;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(locationID);
+	    case 1: return String.valueOf(label);
+	    case 2: return String.valueOf(location);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(3);
+	    row.add(locationID);
+	    row.add(label);
+	    row.add(location);
+	    return row;
+	}
+
+	/**
+	 * Get the location ID.
+	 * @return the location ID
+	 */
+	public int getLocationID() {return locationID;}
+
+	/**
+	 * Get the location's label.
+	 * @return the label
+	 */
+	public String getLabel() {return label;}
+
+	/**
+	 * Get the location.
+	 * @return the location
+	 */
+	public String getLocation() {return location;}
+    }
+
+    /**
+     * Typed row for the event table.
+     */
+    public static final class EventRow extends TableRow {
+	final int eventID;
+	final int ownerID;
+	final String label;
+	final String description;
+	// label used when printing; null if not known
+	final String ownerLabel;
+
+	EventRow(ResultSet rs, boolean labeled) throws SQLException {
+	    eventID = rs.getInt(1);
+	    ownerID = rs.getInt(2);
+	    label = rs.getString(3);
+	    description = rs.getString(4);
+	    ownerLabel = labeled? pageOwnerLabel(rs): null;
+	}
+
+	/**
+	 * Constructor.
+	 * @param eventID the event ID
+	 * @param ownerID the owner ID for the event
+	 * @param label the event's label
+	 * @param description the event's description
+	 */
+	public EventRow(int eventID, int ownerID, String label,
+			String description)
+	{
+	    this.eventID = eventID;
+	    this.ownerID = ownerID;
+	    this.label = label;
+	    this.description = description;
+	    ownerLabel = null;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listEvents(Connection,int[],boolean)} with its
+	 * last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static EventRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 4);
+	    return new EventRow(intValue(row.get(0)), intValue(row.get(1)),
+				(String) row.get(2), (String) row.get(3));
+	}
+
+	@Override
+	public Table getTable() {return Table.EVENT;}
+
+	@Override
+	int size() {return 4;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(eventID);
+	    case 1: return idString(ownerID, ownerLabel);
+	    case 2: return String.valueOf(label);
+	    case 3: return String.valueOf(description);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(4);
+	    row.add(eventID);
+	    row.add(ownerID);
+	    row.add(label);
+	    row.add(description);
+	    return row;
+	}
+
+	/**
+	 * Get the event ID.
+	 * @return the event ID
+	 */
+	public int getEventID() {return eventID;}
+
+	/**
+	 * Get the owner ID for the event.
+	 * @return the owner ID
+	 */
+	public int getOwnerID() {return ownerID;}
+
+	/**
+	 * Get the event's label.
+	 * @return the label
+	 */
+	public String getLabel() {return label;}
+
+	/**
+	 * Get the event's description.
+	 * @return the description; null if there is none
+	 */
+	public String getDescription() {return description;}
+    }
+
+    /**
+     * Typed row for the event-instance table.
+     */
+    public static final class InstanceRow extends TableRow {
+	final int instanceID;
+	final int eventID;
+	final int locationID;
+	final String preEventType;
+	final Integer preEventOffset;
+	final java.sql.Date startDate;
+	final Time startTime;
+	final java.sql.Date endDate;
+	final Time endTime;
+	final CalendarStatus status;
+	// labels used when printing; null if not known
+	final String eventLabel;
+	final String locationLabel;
+
+	InstanceRow(ResultSet rs, boolean labeled) throws SQLException {
+	    instanceID = rs.getInt(1);
+	    eventID = rs.getInt(2);
+	    locationID = rs.getInt(3);
+	    preEventType = rs.getString(4);
+	    int offset = rs.getInt(5);
+	    preEventOffset = rs.wasNull()? null: offset;
+	    startDate = rs.getDate(6);
+	    startTime = rs.getTime(7);
+	    endDate = rs.getDate(8);
+	    endTime = rs.getTime(9);
+	    status = enumValue(CalendarStatus.class, rs.getString(10));
+	    eventLabel = labeled? instanceEventLabel(rs): null;
+	    locationLabel = labeled? instanceLocationLabel(rs): null;
+	}
+
+	/**
+	 * Constructor.
+	 * @param instanceID the instance ID
+	 * @param eventID the event ID
+	 * @param locationID the location ID
+	 * @param preEventType the pre-event type; null if there is none
+	 * @param preEventOffset the pre-event offset in minutes; null if
+	 *        there is none
+	 * @param startDate the starting date
+	 * @param startTime the starting time
+	 * @param endDate the ending date
+	 * @param endTime the ending time
+	 * @param status the status
+	 */
+	public InstanceRow(int instanceID, int eventID, int locationID,
+			   String preEventType, Integer preEventOffset,
+			   java.sql.Date startDate, Time startTime,
+			   java.sql.Date endDate, Time endTime,
+			   CalendarStatus status)
+	{
+	    this.instanceID = instanceID;
+	    this.eventID = eventID;
+	    this.locationID = locationID;
+	    this.preEventType = preEventType;
+	    this.preEventOffset = preEventOffset;
+	    this.startDate = startDate;
+	    this.startTime = startTime;
+	    this.endDate = endDate;
+	    this.endTime = endTime;
+	    this.status = status;
+	    eventLabel = null;
+	    locationLabel = null;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listEventInstances(Connection,int[],boolean)} with
+	 * its last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static InstanceRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 10);
+	    Object offset = row.get(4);
+	    return new InstanceRow(intValue(row.get(0)),
+				   intValue(row.get(1)),
+				   intValue(row.get(2)),
+				   (String) row.get(3),
+				   (offset == null)? null: intValue(offset),
+				   (java.sql.Date) row.get(5),
+				   (Time) row.get(6),
+				   (java.sql.Date) row.get(7),
+				   (Time) row.get(8),
+				   enumValue(CalendarStatus.class,
+					     row.get(9)));
+	}
+
+	@Override
+	public Table getTable() {return Table.INSTANCE;}
+
+	@Override
+	int size() {return 10;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(instanceID);
+	    case 1: return idString(eventID, eventLabel);
+	    case 2: return idString(locationID, locationLabel);
+	    case 3: return String.valueOf(preEventType);
+	    case 4: return String.valueOf(preEventOffset);
+	    case 5: return String.valueOf(startDate);
+	    case 6: return String.valueOf(startTime);
+	    case 7: return String.valueOf(endDate);
+	    case 8: return String.valueOf(endTime);
+	    case 9: return String.valueOf(status);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(10);
+	    row.add(instanceID);
+	    row.add(eventID);
+	    row.add(locationID);
+	    row.add(preEventType);
+	    row.add(preEventOffset);
+	    row.add(startDate);
+	    row.add(startTime);
+	    row.add(endDate);
+	    row.add(endTime);
+	    row.add(status);
+	    return row;
+	}
+
+	/**
+	 * Get the instance ID.
+	 * @return the instance ID
+	 */
+	public int getInstanceID() {return instanceID;}
+
+	/**
+	 * Get the event ID.
+	 * @return the event ID
+	 */
+	public int getEventID() {return eventID;}
+
+	/**
+	 * Get the location ID.
+	 * @return the location ID
+	 */
+	public int getLocationID() {return locationID;}
+
+	/**
+	 * Get the pre-event type.
+	 * @return the pre-event type; null if there is none
+	 */
+	public String getPreEventType() {return preEventType;}
+
+	/**
+	 * Get the pre-event offset.
+	 * @return the offset in minutes; null if there is none
+	 */
+	public Integer getPreEventOffset() {return preEventOffset;}
+
+	/**
+	 * Get the starting date.
+	 * @return the starting date; null if not known
+	 */
+	public java.sql.Date getStartDate() {return startDate;}
+
+	/**
+	 * Get the starting time.
+	 * @return the starting time; null if not known
+	 */
+	public Time getStartTime() {return startTime;}
+
+	/**
+	 * Get the ending date.
+	 * @return the ending date; null if not known
+	 */
+	public java.sql.Date getEndDate() {return endDate;}
+
+	/**
+	 * Get the ending time.
+	 * @return the ending time; null if not known
+	 */
+	public Time getEndTime() {return endTime;}
+
+	/**
+	 * Get the status.
+	 * @return the status; null if there is none
+	 */
+	public CalendarStatus getStatus() {return status;}
+    }
+
+    /**
+     * Typed row for the series table.
+     */
+    public static final class SeriesRow extends TableRow {
+	final int seriesID;
+	final int ownerID;
+	final String label;
+	// label used when printing; null if not known
+	final String ownerLabel;
+
+	SeriesRow(ResultSet rs, boolean labeled) throws SQLException {
+	    seriesID = rs.getInt(1);
+	    ownerID = rs.getInt(2);
+	    label = rs.getString(3);
+	    ownerLabel = labeled? pageOwnerLabel(rs): null;
+	}
+
+	/**
+	 * Constructor.
+	 * @param seriesID the series ID
+	 * @param ownerID the owner ID for the series
+	 * @param label the series' label
+	 */
+	public SeriesRow(int seriesID, int ownerID, String label) {
+	    this.seriesID = seriesID;
+	    this.ownerID = ownerID;
+	    this.label = label;
+	    ownerLabel = null;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listSeries(Connection,int[],boolean)} with its
+	 * last argument set to true.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static SeriesRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 3);
+	    return new SeriesRow(intValue(row.get(0)), intValue(row.get(1)),
+				 (String) row.get(2));
+	}
+
+	@Override
+	public Table getTable() {return Table.SERIES;}
+
+	@Override
+	int size() {return 3;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return Integer.toString(seriesID);
+	    case 1: return idString(ownerID, ownerLabel);
+	    case 2: return String.valueOf(label);
+	    default: throw badColumn();
+	    }
+	}
+
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(3);
+	    row.add(seriesID);
+	    row.add(ownerID);
+	    row.add(label);
+	    return row;
+	}
+
+	/**
+	 * Get the series ID.
+	 * @return the series ID
+	 */
+	public int getSeriesID() {return seriesID;}
+
+	/**
+	 * Get the owner ID for the series.
+	 * @return the owner ID
+	 */
+	public int getOwnerID() {return ownerID;}
+
+	/**
+	 * Get the series' label.
+	 * @return the label
+	 */
+	public String getLabel() {return label;}
+    }
+
+    /**
+     * Typed row for the attendee table.
+     */
+    public static final class AttendeeRow extends TableRow {
+	final int userID;
+	final int instanceID;
+	final AttendeeState attendeeState;
+	final Boolean attendingPreEvent;
+	final int seriesID;
+	// labels used when printing; null if not known
+	final String userLabel;
+	final String instanceLabel;
+	final String seriesLabel;
+
+	AttendeeRow(ResultSet rs, boolean labeled) throws SQLException {
+	    userID = rs.getInt(1);
+	    instanceID = rs.getInt(2);
+	    attendeeState = enumValue(AttendeeState.class, rs.getString(3));
+	    boolean attending = rs.getBoolean(4);
+	    attendingPreEvent = rs.wasNull()? null: attending;
+	    int id = rs.getInt(5);
+	    seriesID = rs.wasNull()? -1: id;
+	    if (labeled) {
+		userLabel = attendeeUserLabel(rs);
+		instanceLabel = attendeeInstanceLabel(rs);
+		seriesLabel = attendeeSeriesLabel(rs);
+	    } else {
+		userLabel = null;
+		instanceLabel = null;
+		seriesLabel = null;
+	    }
+	}
+
+	/**
+	 * Constructor.
+	 * @param userID the user ID
+	 * @param instanceID the instance ID
+	 * @param attendeeState the attendee state
+	 * @param attendingPreEvent true if the user is attending the
+	 *        pre-event; false if not; null if not known
+	 * @param seriesID the series ID; -1 if there is none
+	 */
+	public AttendeeRow(int userID, int instanceID,
+			   AttendeeState attendeeState,
+			   Boolean attendingPreEvent, int seriesID)
+	{
+	    this.userID = userID;
+	    this.instanceID = instanceID;
+	    this.attendeeState = attendeeState;
+	    this.attendingPreEvent = attendingPreEvent;
+	    this.seriesID = seriesID;
+	    userLabel = null;
+	    instanceLabel = null;
+	    seriesLabel = null;
+	}
+
+	/**
+	 * Create a typed row from a row provided by
+	 * {@link ECDB#listAttendees(Connection,int,int,int,String,boolean)}.
+	 * @param row the row
+	 * @return the typed row
+	 * @throws IllegalArgumentException if the row is not a full row
+	 */
+	public static AttendeeRow fromVector(Vector<Object> row)
+	    throws IllegalArgumentException
+	{
+	    checkSize(row, 5);
+	    return new AttendeeRow(intValue(row.get(0)),
+				   intValue(row.get(1)),
+				   enumValue(AttendeeState.class,
+					     row.get(2)),
+				   (Boolean) row.get(3),
+				   intValue(row.get(4)));
+	}
+
+	@Override
+	public Table getTable() {return Table.ATTENDEE;}
+
+	@Override
+	int size() {return 5;}
+
+	@Override
+	String getString(int column) {
+	    switch (column) {
+	    case 0: return idString(userID, userLabel);
+	    case 1: return idString(instanceID, instanceLabel);
+	    case 2: return String.valueOf(attendeeState);
+	    case 3: return String.valueOf(attendingPreEvent);
+	    case 4: return idString(seriesID, seriesLabel);
+	    default: throw badColumn();
+	    }
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * As with the rows that <CODE>listAttendees</CODE> provides
+	 * when its last argument is false, the attendee state is a
+	 * string and the series ID is null if there is no series.
+	 */
+	@Override
+	public Vector<Object> toVector() {
+	    Vector<Object> row = new Vector<Object>(5);
+	    row.add(userID);
+	    row.add(instanceID);
+	    row.add((attendeeState == null)? null: attendeeState.name());
+	    row.add(attendingPreEvent);
+	    row.add((seriesID == -1)? null: seriesID);
+	    return row;
+	}
+
+	/**
+	 * Get the user ID.
+	 * @return the user ID
+	 */
+	public int getUserID() {return userID;}
+
+	/**
+	 * Get the instance ID.
+	 * @return the instance ID
+	 */
+	public int getInstanceID() {return instanceID;}
+
+	/**
+	 * Get the attendee state.
+	 * @return the attendee state
+	 */
+	public AttendeeState getAttendeeState() {return attendeeState;}
+
+	/**
+	 * Determine if the user is attending the pre-event.
+	 * @return true if the user is attending the pre-event; false if
+	 *         not; null if not known
+	 */
+	public Boolean getAttendingPreEvent() {return attendingPreEvent;}
+
 	/**
-	 * Constructor.
-	 * @param id the ID
-	 * @param label the label
+	 * Get the series ID.
+	 * @return the series ID; -1 if there is none
 	 */
-	public SeriesLabeledID(int id, String label) {
-	    super(id, label);
-	}
+	public int getSeriesID() {return seriesID;}
     }
 
 
@@ -9530,9 +12581,22 @@ public class ECDB implements AutoCloseable {
 		throw new IllegalArgumentException("column index out of range");
 	    }
 	}
+	printHeading(heading, cols, full);
+	for (Vector<Object> row: vector) {
+	    printRow(row, cols);
+	}
+    }
+
+    // Print the column headings for a table; cols is null for all
+    // of the columns.
+    static void printHeading(int heading, int[] cols, boolean full) {
 	if (heading >= 0) {
 	    String[] headers = full? colHeadingsF[heading]:
 		colHeadings[heading];
+	    if (cols == null) {
+		cols = new int[headers.length];
+		for (int i = 0; i < cols.length; i++) cols[i] = i;
+	    }
 	    boolean first = true;
 	    for (int ind: cols) {
 		String s = headers[ind];
@@ -9545,26 +12609,73 @@ public class ECDB implements AutoCloseable {
 	    }
 	    System.out.println();
 	}
-	
-	for (Vector<Object> row: vector) {
-	    boolean first = true;
-	    for (int ind: cols) {
-		if (first) {
-		    first = false;
-		} else {
-		    System.out.print(" | ");
-		}
-		Object item = row.get(ind);
-		if (item instanceof LabeledID) {
-		    System.out.print(((LabeledID)item).toFullString());
-		} else {
-		    System.out.print(item);
+    }
+
+    // Print a row; cols is null for all of the columns.
+    static void printRow(Vector<Object> row, int[] cols) {
+	int n = (cols == null)? row.size(): cols.length;
+	for (int i = 0; i < n; i++) {
+	    int ind = (cols == null)? i: cols[i];
+	    if (ind >= row.size()) {
+		throw new IllegalArgumentException("column index out of range");
+	    }
+	    if (i > 0) {
+		System.out.print(" | ");
+	    }
+	    Object item = row.get(ind);
+	    if (item instanceof LabeledID) {
+		System.out.print(((LabeledID)item).toFullString());
+	    } else {
+		System.out.print(item);
+	    }
+	}
+	System.out.println();
+    }
+
+    // Print a typed row; cols is null for all of the columns. When
+    // full is false, only the ID column (column 0) is printed.
+    static void printRow(TableRow row, int[] cols, boolean full) {
+	int size = full? row.size(): 1;
+	int n = (cols == null)? size: cols.length;
+	for (int i = 0; i < n; i++) {
+	    int ind = (cols == null)? i: cols[i];
+	    if (ind >= size) {
+		throw new IllegalArgumentException("column index out of range");
+	    }
+	    if (i > 0) {
+		System.out.print(" | ");
+	    }
+	    System.out.print(row.getString(ind));
+	}
+	System.out.println();
+    }
+
+    private static void checkCols(int[] cols) {
+	if (cols != null) {
+	    for (int i: cols) {
+		if (i < 0) {
+		    throw new IllegalArgumentException
+			("column index out of range");
 		}
 	    }
-	    System.out.println();
 	}
     }
 
+    // Print the rows of a table as each page is read instead of
+    // reading all of the rows before printing them.
+    private static void printPages(ECDB ecdb, Connection conn, Table table,
+				   int pageSize, int[] cols, int heading,
+				   boolean full)
+	throws SQLException
+    {
+	checkCols(cols);
+	printHeading(heading, cols, full);
+	ecdb.forEachTableRow(conn, table, pageSize, full, (row) -> {
+		printRow(row, cols, full);
+		return true;
+	    });
+    }
+
     static void print(Vector<Vector<Object>> vector, boolean full) {
 	print(vector, -1, full);
     }
@@ -9578,43 +12689,25 @@ public class ECDB implements AutoCloseable {
 
     static void print(Vector<Vector<Object>> vector, int heading,
 		      boolean full) {
-	if (heading >= 0) {
-	    String[] headers = full? colHeadingsF[heading]:
-		colHeadings[heading];
-	    boolean first = true;
-	    for (String s: headers) {
-		if (first) {
-		    first = false;
-		} else {
-		    System.out.print(" | ");
-		}
-		System.out.print(s);
-	    }
-	    System.out.println();
-	}
+	printHeading(heading, null, full);
 	for (Vector<Object> row: vector) {
-	    boolean first = true;
-	    for (Object entry: row) {
-		if (first) {
-		    first = false;
-		} else {
-		    System.out.print(" | ");
-		}
-		if (entry instanceof LabeledID) {
-		    System.out.print(((LabeledID)entry).toFullString());
-		} else {
-		    System.out.print(entry);
-		}
-	    }
-	    System.out.println();
+	    printRow(row, null);
+	}
+    }
+
+    // An error in the options or arguments passed to runCommand.  The
+    // ecdb program prints its message and exits; for a script,
+    // ScriptRunner reports the line and rolls back the transaction.
+    static class CommandException extends IllegalArgumentException {
+	CommandException(String msg) {
+	    super(msg);
 	}
     }
 
     private static void hasArgTest(int ind, String[] argv) {
 	if (ind >= argv.length) {
-	    System.err.println("ecdb: missing argument for "
-			       + argv[ind-1]);
-	    System.exit(1);
+	    throw new CommandException("missing argument for "
+				       + argv[ind-1]);
 	}
     }
 
@@ -9702,6 +12795,7 @@ public class ECDB implements AutoCloseable {
     private String altMediaType = "text/plain; charset=UTF-8";;
     private URL altTemplateURL = null;
     private Boolean preflight = null;
+    TemplateCache templateCache = new TemplateCache();
 
     /**
      * Set the subject for a message (email or MMS via a gateway).
@@ -9800,6 +12894,70 @@ public class ECDB implements AutoCloseable {
 	preflight = value;
     }
 
+    private int bccLimit = -1;
+
+    /**
+     * Get the maximum number of recipients for a single message.
+     * When calendars are suppressed, recipients that would receive
+     * identical messages are sent a single message with multiple
+     * blind-copy (BCC) recipients. The default is provided by the
+     * configuration-file property <CODE>bccLimit</CODE>, and is 1
+     * if that property is missing.
+     * @return the maximum number of recipients per message; 1 if
+     *         each recipient receives a separate message
+     */
+    public int getBccLimit() {
+	if (bccLimit == -1) {
+	    String limit = dbProperties.getProperty("bccLimit", "1").trim();
+	    try {
+		bccLimit = Integer.parseInt(limit);
+		if (bccLimit < 1) bccLimit = 1;
+	    } catch (NumberFormatException e) {
+		System.err.println("unrecognized bccLimit: " + limit);
+		return 1;
+	    }
+	}
+	return bccLimit;
+    }
+
+    /**
+     * Set the maximum number of recipients for a single message.
+     * This value is used only when calendars are not attached to
+     * messages.
+     * @param limit the maximum number of recipients per message;
+     *        1 if each recipient should receive a separate message
+     */
+    public void setBccLimit(int limit) {
+	bccLimit = (limit < 1)? 1: limit;
+    }
+
+    // Get the distinct user IDs of recipients whose messages go to an
+    // MMS gateway; if all is true, every recipient is included.
+    private static int[] getCellUserIDs(Vector<UserCalendars> vector,
+					boolean all)
+    {
+	LinkedHashSet<Integer> set = new LinkedHashSet<>();
+	for (UserCalendars ucals: vector) {
+	    if (all || !ucals.forEmail) set.add(ucals.userID);
+	}
+	int[] results = new int[set.size()];
+	int i = 0;
+	for (Integer userID: set) {
+	    results[i++] = userID;
+	}
+	return results;
+    }
+
+    private static String getDomain(String address) {
+	int index = address.lastIndexOf('@');
+	if (index == -1) return "";
+	String domain = address.substring(index+1);
+	if (domain.endsWith(">")) {
+	    domain = domain.substring(0, domain.length()-1);
+	}
+	return domain.trim().toLowerCase();
+    }
+
     /**
      * Send a calendar appointment or message via email, either to
      * an email address. For MMS, the recipient address is that for a
@@ -9818,6 +12976,7 @@ public class ECDB implements AutoCloseable {
      *        messages are formated or created as desired); false otherwise
      * @throws SQLException if an SQL error occurred
      * @throws Exception an  error occurred
+     * @see #getBccLimit()
      */
     public static boolean sendViaEmail(ECDB ecdb, Connection conn,
 				       Vector<UserCalendars> vector,
@@ -9835,69 +12994,113 @@ public class ECDB implements AutoCloseable {
 	String provider = emailProperties.getProperty("provider");
 	SMTPAgent agent = SMTPAgent.newInstance(preflight? "dryrun": provider);
 	if (agent != null) {
-	    for (UserCalendars ucals: vector) {
-		String mediaType = null;
-		URL templateURL = null;
-		String altMediaType = null;
-		URL altTemplateURL = null;
-		if (ucals.forEmail) {
-		    if (templateURL1 == null &&  altTemplateURL1 == null) {
-			mediaType = "text/html; charset=UTF-8";
-			templateURL = ECDB.class.getResource("text.tpl");
-			altMediaType = "text/plain; charset=UTF-8";
-			altTemplateURL = ECDB.class.getResource("alttext.tpl");
+	    URL defaultTemplateURL = ECDB.class.getResource("text.tpl");
+	    URL defaultAltTemplateURL = ECDB.class.getResource("alttext.tpl");
+	    HashMap<String,String> memo = new HashMap<>();
+	    int bccLimit = suppressCalendars? ecdb.getBccLimit(): 1;
+	    LinkedHashMap<Properties,Vector<String>> groups =
+		new LinkedHashMap<>();
+	    int[] cellUserIDs = getCellUserIDs(vector, false);
+	    try {
+		if (cellUserIDs.length > 0) {
+		    ecdb.cellEmailCache.prefetch(ecdb, conn, cellUserIDs);
+		    CellEmailFinder.resolve(ecdb, conn, ecdb.cellEmailCache
+					    .getPrefetchedKeys());
+		}
+		for (UserCalendars ucals: vector) {
+		    String mediaType = null;
+		    URL templateURL = null;
+		    String altMediaType = null;
+		    URL altTemplateURL = null;
+		    if (ucals.forEmail) {
+			if (templateURL1 == null &&  altTemplateURL1 == null) {
+			    mediaType = "text/html; charset=UTF-8";
+			    templateURL = defaultTemplateURL;
+			    altMediaType = "text/plain; charset=UTF-8";
+			    altTemplateURL = defaultAltTemplateURL;
+			} else {
+			    mediaType = mediaType1;
+			    templateURL = templateURL1;
+			    altMediaType = altMediaType1;
+			    altTemplateURL = altTemplateURL1;
+			}
 		    } else {
-			mediaType = mediaType1;
-			templateURL = templateURL1;
-			altMediaType = altMediaType1;
-			altTemplateURL = altTemplateURL1;
+			if (mediaType1 != null && templateURL1 != null &&
+			    mediaType1.toLowerCase().startsWith("text.plain")) {
+			    mediaType = mediaType1;
+			    templateURL = templateURL1;
+			} else if (altMediaType1 != null
+				   && altTemplateURL1 != null
+				   && altMediaType1.toLowerCase()
+				   .startsWith("text.plain")) {
+			    mediaType = altMediaType1;
+			    templateURL = altTemplateURL1;
+			}
+		    }
+		    emailProperties = ecdb.getEmailProperties();
+		    if (subject != null) {
+			emailProperties.put("subject", subject);
+		    }
+		    if (mediaType != null) {
+			emailProperties.put("textMediaType", mediaType);
+		    }
+		    if (altMediaType != null) {
+			emailProperties.put("altTextMediaType", altMediaType);
+		    }
+		    if (mediaType != null && templateURL != null) {
+			String txt = ecdb.templateCache.process(templateURL,
+								ucals.kmap, true,
+								memo);
+			emailProperties.put("text", txt);
+		    }
+		    if (altMediaType != null && altTemplateURL != null) {
+			String txt = ecdb.templateCache.process(altTemplateURL,
+								ucals.kmap, true,
+								memo);
+			emailProperties.put("altText", txt);
+		    }
+		    String to = ecdb.getFullEmailAddress(conn, ucals.userID,
+							 ucals.forEmail);
+		    if (to != null && ucals.calendars.size() > 0) {
+			if (bccLimit > 1) {
+			    // messages with the same properties are identical
+			    Vector<String> addresses =
+				groups.get(emailProperties);
+			    if (addresses == null) {
+				addresses = new Vector<>();
+				groups.put(emailProperties, addresses);
+			    }
+			    addresses.add(to);
+			} else {
+			    agent.send(emailProperties, to,
+				       (suppressCalendars? null:
+					ucals.calendars));
+			}
+		    }
+		}
+		for (Map.Entry<Properties,Vector<String>> entry:
+			 groups.entrySet()) {
+		    Properties props = entry.getKey();
+		    Vector<String> addresses = entry.getValue();
+		    // keep recipients on the same domain (e.g., an MMS gateway)
+		    // in the same message when possible.
+		    addresses.sort((a1, a2) ->
+				   getDomain(a1).compareTo(getDomain(a2)));
+		    int n = addresses.size();
+		    for (int i = 0; i < n; i += bccLimit) {
+			int end = Math.min(n, i + bccLimit);
+			if (end - i == 1) {
+			    agent.send(props, addresses.get(i), null);
+			} else {
+			    agent.sendBcc(props,
+					  new Vector<String>(addresses
+							     .subList(i, end)),
+					  null);
+			}
 		    }
-		} else {
-		    if (mediaType1 != null && templateURL1 != null &&
-			mediaType1.toLowerCase().startsWith("text.plain")) {
-			mediaType = mediaType1;
-			templateURL = templateURL1;
-		    } else if (altMediaType1 != null && altTemplateURL1 != null
-			       && altMediaType1.toLowerCase()
-			       .startsWith("text.plain")) {
-			mediaType = altMediaType1;
-			templateURL = altTemplateURL1;
-		    }
-		}
-		emailProperties = ecdb.getEmailProperties();
-		if (subject != null) {
-		    emailProperties.put("subject", subject);
-		}
-		if (mediaType != null) {
-		    emailProperties.put("textMediaType", mediaType);
-		}
-		if (altMediaType != null) {
-		    emailProperties.put("altTextMediaType", altMediaType);
-		}
-		if (mediaType != null && templateURL != null) {
-		    StringBuilder sb = new StringBuilder();
-		    AppendableWriter w = new AppendableWriter(sb);
-		    TemplateProcessor tp = new TemplateProcessor(ucals.kmap);
-		    tp.processURL(templateURL, "UTF-8", w);
-		    String txt = sb.toString().replaceAll("\r\n", "\n")
-			.replaceAll("\n", "\r\n");
-		    emailProperties.put("text", txt);
-		}
-		if (altMediaType != null && altTemplateURL != null) {
-		    StringBuilder sb = new StringBuilder();
-		    AppendableWriter w = new AppendableWriter(sb);
-		    TemplateProcessor tp = new TemplateProcessor(ucals.kmap);
-		    tp.processURL(altTemplateURL, "UTF-8", w);
-		    String txt = sb.toString().replaceAll("\r\n", "\n")
-			.replaceAll("\n", "\r\n");
-		    emailProperties.put("altText", txt);
-		}
-		String to = ecdb.getFullEmailAddress(conn, ucals.userID,
-						     ucals.forEmail);
-		if (to != null && ucals.calendars.size() > 0) {
-		    agent.send(emailProperties, to,
-			       (suppressCalendars? null: ucals.calendars));
 		}
+	    } finally {
+		ecdb.cellEmailCache.endPrefetch(ecdb, conn);
 	    }
 	    return agent.complete(frame, !preflight);
 	} else {
@@ -9946,46 +13149,49 @@ public class ECDB implements AutoCloseable {
 	}
 
 
-	boolean first = true;
-	for (UserCalendars ucal: vector) {
-	    if (first) {
-		first = false;
-	    } else {
-		System.out.println();
-	    }
-	    System.out.format("*** For user %d (%s) ***\n",
-			      ucal.userID,
-			      ecdb.getFullEmailAddress(conn, ucal.userID,
-						       forEmail));
-	    if (subject != null) {
-		System.out.println("*** subject: " + subject);
-	    }
-	    if (mediaType != null) {
-		System.out.println("*** text ***");
-		TemplateProcessor tp = new
-		    TemplateProcessor(ucal.kmap);
-		/*
-		  FileReader r = new
-		  FileReader(template, UTF8);
-		*/
-		tp.processURL(templateURL, "UTF-8", System.out);
-	    }
-	    if (altMediaType != null) {
-		System.out.println("*** alt text ***");
-		TemplateProcessor tp = new
-		    TemplateProcessor(ucal.kmap);
-		/*
-		  FileReader r = new
-		  FileReader(altTemplate, UTF8);
-		*/
-		tp.processURL(altTemplateURL, "UTF-8", System.out);
+	HashMap<String,String> memo = new HashMap<>();
+	try {
+	    if (!forEmail && vector.size() > 0) {
+		ecdb.cellEmailCache.prefetch(ecdb, conn,
+					     getCellUserIDs(vector, true));
+		CellEmailFinder.resolve(ecdb, conn,
+					ecdb.cellEmailCache.getPrefetchedKeys());
 	    }
-	    if (suppressCalendars == false) {
-		if (mediaType != null || altMediaType != null) {
-		    System.out.println("*** Calendars ***");
+	    boolean first = true;
+	    for (UserCalendars ucal: vector) {
+		if (first) {
+		    first = false;
+		} else {
+		    System.out.println();
+		}
+		System.out.format("*** For user %d (%s) ***\n",
+				  ucal.userID,
+				  ecdb.getFullEmailAddress(conn, ucal.userID,
+							   forEmail));
+		if (subject != null) {
+		    System.out.println("*** subject: " + subject);
+		}
+		if (mediaType != null) {
+		    System.out.println("*** text ***");
+		    System.out.print(ecdb.templateCache.process(templateURL,
+								ucal.kmap, false,
+								memo));
+		}
+		if (altMediaType != null) {
+		    System.out.println("*** alt text ***");
+		    System.out.print(ecdb.templateCache.process(altTemplateURL,
+								ucal.kmap, false,
+								memo));
+		}
+		if (suppressCalendars == false) {
+		    if (mediaType != null || altMediaType != null) {
+			System.out.println("*** Calendars ***");
+		    }
+		    printICals(ucal.calendars);
 		}
-		printICals(ucal.calendars);
 	    }
+	} finally {
+	    ecdb.cellEmailCache.endPrefetch(ecdb, conn);
 	}
     }
 
@@ -9994,16 +13200,41 @@ public class ECDB implements AutoCloseable {
      * as part of a class library.
      */
     public static void main(String argv[]) {
+	try {
+	    runCommand(argv);
+	} catch (CommandException e) {
+	    System.err.println("ecdb: " + e.getMessage());
+	    System.exit(1);
+	} catch (Exception e) {
+	    e.printStackTrace();
+	    System.exit(1);
+	}
+    }
+
+    // Run the command given by a list of options and arguments. This
+    // is called by main and, for each line of a script, by ScriptRunner.
+    static void runCommand(String argv[]) throws Exception {
 	int ind = 0;
 
 	boolean config = false;
 	boolean createDB = false;
 	// boolean allowRoles = false;
 	boolean createTables = false;
+	boolean createIndexes = false;
+	boolean upgradeSchema = false;
+	LocalDate archiveBefore = null;
+	boolean updateStatistics = false;
+	boolean compressTables = false;
+	String explainKey = null;
 	boolean noSetupOptions = true;
 	boolean noCommands = true;
 	boolean full = false;
 	boolean id = false;
+	boolean force = false;
+	int pageSize = 0;
+	String script = null;
+	boolean transaction = false;
+	int servePort = -1;
 
 	boolean addPhoneDomains = false;
 	LinkedHashMap<String,String> pdmap = new LinkedHashMap<>();
@@ -10017,6 +13248,8 @@ public class ECDB implements AutoCloseable {
 	boolean setUser = false;
 	boolean listUsers = false;
 	boolean getCellEmail = false;
+	boolean refreshCellEmail = false;
+	File importUsersFile = null;
 	boolean deleteUser = false;
 	boolean addOwner = false;
 	boolean setOwner = false;
@@ -10095,6 +13328,7 @@ public class ECDB implements AutoCloseable {
 	Boolean forPhone = null;
 	Boolean forEmail = null;
 	boolean preflight = false;
+	int bccLimit = -1;
         int offset = -1; // integer
 	int eventID = -1;
 	String epattern = null;
@@ -10136,6 +13370,21 @@ public class ECDB implements AutoCloseable {
 		full = true;
 	    } else if (argv[ind].equals("--id") || argv[ind].equals("-i")) {
 		id = true;
+	    } else if (argv[ind].equals("--force")) {
+		force = true;
+	    } else if (argv[ind].equals("--script")) {
+		ind++; hasArgTest(ind, argv);
+		script = argv[ind];
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--transaction")) {
+		transaction = true;
+	    } else if (argv[ind].equals("--serve")) {
+		ind++; hasArgTest(ind, argv);
+		servePort = Integer.parseInt(argv[ind]);
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--pageSize")) {
+		ind++; hasArgTest(ind, argv);
+		pageSize = Integer.parseInt(argv[ind]);
 	    } else if (argv[ind].equals("--carrierID")) {
 		ind++; hasArgTest(ind, argv);
 		carrierID = Integer.parseInt(argv[ind]);
@@ -10226,6 +13475,9 @@ public class ECDB implements AutoCloseable {
 		}
 	    } else if (argv[ind].equals("--preflight")) {
 		preflight = true;
+	    } else if (argv[ind].equals("--bccLimit")) {
+		ind++; hasArgTest(ind, argv);
+		bccLimit = Integer.parseInt(argv[ind]);
 	    } else if (argv[ind].equals("--offset")) {
 		ind++; hasArgTest(ind, argv);
 		offset = Integer.parseInt(argv[ind]);
@@ -10277,9 +13529,8 @@ public class ECDB implements AutoCloseable {
 		    try {
 			cols[i] = Integer.parseUnsignedInt(tmp[i]);
 		    } catch (NumberFormatException nfe) {
-			System.err.println("ecdb: illegal --cols argument "
-					   + "\"" + tmp[i] + "\"");
-			System.exit(1);
+			throw new CommandException("illegal --cols argument "
+						   + "\"" + tmp[i] + "\"");
 		    }
 		}
 	    } else if (argv[ind].equals("--noCalendars")) {
@@ -10318,16 +13569,41 @@ public class ECDB implements AutoCloseable {
 		// allowRoles = true;
 		createTables = true;
 		noSetupOptions = false;
+	    } else if (argv[ind].equals("--createIndexes")) {
+		createIndexes = true;
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--upgradeSchema")) {
+		createIndexes = true;
+		upgradeSchema = true;
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--archiveBefore")) {
+		ind++; hasArgTest(ind, argv);
+		archiveBefore = LocalDate.parse(argv[ind]);
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--updateStatistics")) {
+		updateStatistics = true;
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--compressTables")) {
+		compressTables = true;
+		noSetupOptions = false;
+	    } else if (argv[ind].equals("--explain")) {
+		ind++; hasArgTest(ind, argv);
+		explainKey = argv[ind];
+		noSetupOptions = false;
 	    } else if (argv[ind].equals("--createWithGUI")) {
 		// Not documented: used by ECDB.desktop
+		if (scriptECDB != null) {
+		    throw new IllegalStateException
+			("--createWithGUI used in a script");
+		}
 		Support.InitData initData = null;
 		try {
 		    initData = Support.getInitData();
 		} catch (Exception e) {
-		    System.err.println("ECDB: " + e.getMessage());
-		    System.exit(1);
+		    throw new CommandException(e.getMessage());
 		}
 		if (initData == null) {
+		    // the dialog's AWT threads would keep the JVM running
 		    System.out.println("ECDB: user canceled initialization");
 		    System.exit(0);
 		}
@@ -10358,6 +13634,10 @@ public class ECDB implements AutoCloseable {
 	    } else if (argv[ind].equals("--addUser")) {
 		addUser = true;
 		noCommands = false;
+	    } else if (argv[ind].equals("--importUsers")) {
+		ind++; hasArgTest(ind, argv);
+		importUsersFile = new File(argv[ind]);
+		noCommands = false;
 	    } else if (argv[ind].equals("--listUsers")) {
 		listUsers = true;
 		noCommands = false;
@@ -10365,6 +13645,9 @@ public class ECDB implements AutoCloseable {
 	    } else if (argv[ind].equals("--getCellEmail")) {
 		getCellEmail = true;
 		noCommands = false;
+	    } else if (argv[ind].equals("--refreshCellEmail")) {
+		refreshCellEmail = true;
+		noCommands = false;
 	    } else if (argv[ind].equals("--deleteUser")) {
 		deleteUser = true;
 		noCommands = false;
@@ -10526,25 +13809,52 @@ public class ECDB implements AutoCloseable {
 		dir = new File(argv[ind]);
 		if (dir.exists()) {
 		    if (!dir.isDirectory()) {
-			System.err.format("not a directory: " + argv[ind]);
-			System.exit(1);
+			throw new CommandException("not a directory: "
+						   + argv[ind]);
 		    }
 		} else {
 		    if (!dir.mkdirs()) {
-			System.err.format("could not create " + dir.toString());
-			System.exit(1);
+			throw new CommandException("could not create "
+						   + dir.toString());
 		    }
 		}
 	    } else if (argv[ind].startsWith("-")) {
-		System.err.format("ecdb: unrecognized option \"%s\"\n",
-				  argv[ind]);
-		System.exit(1);
+		throw new CommandException("unrecognized option \""
+					   + argv[ind] + "\"");
 	    } else {
 		break;
 	    }
 	    ind++;
 	}
 
+	if (script != null) {
+	    if (scriptECDB != null) {
+		throw new IllegalStateException("--script used in a script");
+	    }
+	    Reader r = script.equals("-")?
+		new InputStreamReader(System.in, UTF8):
+		new InputStreamReader(new FileInputStream(script), UTF8);
+	    try {
+		ScriptRunner.run(f, r, transaction);
+	    } finally {
+		r.close();
+	    }
+	    return;
+	}
+
+	if (servePort >= 0) {
+	    if (scriptECDB != null) {
+		throw new IllegalStateException("--serve used in a script");
+	    }
+	    ECDBServer.serve(f, servePort);
+	    return;
+	}
+
+	if (noSetupOptions && noCommands && scriptECDB != null) {
+	    // the ecdb program would start its GUI instead
+	    throw new CommandException("no command");
+	}
+
 	if (noHeaders) headingIndex = -1;
 
 	int iarray[] = null;
@@ -10588,29 +13898,87 @@ public class ECDB implements AutoCloseable {
 		Support.editConfig(f);
 	    }
 
+	    // an in-memory database is created with its tables when
+	    // it is first used.
 	    if (createDB) {
-		try (ECDB ecdb = new ECDB(f)) {
-		    ecdb.createDB();
+		try (ECDB ecdb = openECDB(f)) {
+		    if (!ecdb.isInMemory()) ecdb.createDB();
 		}
 	    }
 
 	    if (createTables) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    ecdb.allowRoles();
 		}
-		try (ECDB ecdb = new ECDB(f)) {
-		    ecdb.createTables();
+		try (ECDB ecdb = openECDB(f)) {
+		    if (!ecdb.isInMemory()) ecdb.createTables();
+		}
+	    }
+	    if (createIndexes) {
+		try (ECDB ecdb = openECDB(f)) {
+		    int count = ecdb.createIndexes();
+		    if (full) {
+			System.out.println(count + " indexes created");
+		    }
+		}
+	    }
+	    if (upgradeSchema) {
+		try (ECDB ecdb = openECDB(f)) {
+		    int count = ecdb.dropUnusedTriggers();
+		    if (full) {
+			System.out.println(count + " triggers dropped");
+		    }
+		    if (ecdb.createArchiveTables() && full) {
+			System.out.println("archive tables created");
+		    }
+		}
+	    }
+	    if (archiveBefore != null) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			int count = ecdb.archiveBefore(conn, archiveBefore,
+						       pageSize);
+			if (full) {
+			    System.out.println(count + " event instances "
+					       + "archived");
+			}
+		    }
+		}
+	    }
+	    if (compressTables) {
+		try (ECDB ecdb = openECDB(f)) {
+		    int count = ecdb.compressTables();
+		    if (full) {
+			System.out.println(count + " tables compressed");
+		    }
+		}
+	    }
+	    if (updateStatistics) {
+		try (ECDB ecdb = openECDB(f)) {
+		    int count = ecdb.updateStatistics();
+		    if (full) {
+			System.out.println("statistics updated for " + count
+					   + " tables");
+		    }
+		}
+	    }
+	    if (explainKey != null) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			String plan = ecdb.explain(conn, explainKey, sarray);
+			if (plan != null) System.out.println(plan);
+		    }
 		}
 	    }
 	    if (addCarrier) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			ecdb.addCarrier(conn, carrier);
 		    }
 		}
 	    }
 	    if (deleteCarrier) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (carrierID > 0) {
 			    ecdb.deleteCarrier(conn, carrierID);
@@ -10620,9 +13988,16 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	    if (listCarriers) {
+	    if (listCarriers && pageSize > 0 && !id && sarray.length == 0) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.CARRIER, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listCarriers) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (id) {
 			    vector = ecdb.listCarriers(conn, iarray, full);
@@ -10638,14 +14013,14 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setCarrier) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			ecdb.setCarrier(conn, carrierID, carrier);
 		    }
 		}
 	    }
 	    if (setCarrierMapping) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			ecdb.setCarrierMapping(conn,
 					       countryPrefix,
@@ -10658,7 +14033,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    if (listCarrierMap) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			String cprefix = countryPrefix;
 			if (cprefix != null && carrier == null) carrier="%";
@@ -10676,7 +14051,7 @@ public class ECDB implements AutoCloseable {
 	    if (addUser) {
 		boolean lnf = (lastNameFirst == null)? Boolean.FALSE:
 		    lastNameFirst.booleanValue();
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (carrierID == -1) {
 			    if (carrier == null) carrier = "OTHER";
@@ -10688,9 +14063,32 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	    if (listUsers) {
+	    if (importUsersFile != null) {
+		boolean json = importUsersFile.getName().toLowerCase()
+		    .endsWith(".json");
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection();
+			 Reader r = new BufferedReader
+			 (new InputStreamReader
+			  (new FileInputStream(importUsersFile), UTF8))) {
+			int count = ecdb.importUsers(conn, r, json,
+						     System.err);
+			if (full) {
+			    System.out.println(count + " users imported");
+			}
+		    }
+		}
+	    }
+	    if (listUsers && pageSize > 0 && !id && sarray.length == 0) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.USER, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listUsers) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (id) {
 			    vector = ecdb.listUserInfo(conn, iarray, full);
@@ -10706,7 +14104,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (getCellEmail) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1) {
 			    if (upattern != null) {
@@ -10719,8 +14117,18 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
+	    if (refreshCellEmail) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			int count = ecdb.refreshCellEmail(conn);
+			if (full) {
+			    System.out.println(count + " entries updated");
+			}
+		    }
+		}
+	    }
 	    if (setUser) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (carrierID == -1) {
 			    if (carrier != null) {
@@ -10736,12 +14144,15 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteUser) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID != -1) {
 			    ecdb.deleteUserInfo(conn, userID);
 			} else if (upattern != null) {
-			    ecdb. deleteUserInfo(conn, upattern);
+			    int n = ecdb.deleteUserInfo(conn, upattern, force);
+			    if (full) {
+				System.out.println(n + " users deleted");
+			    }
 			} else if (iarray != null && iarray.length > 0) {
 			    ecdb.deleteUserInfo(conn, iarray);
 			}
@@ -10749,15 +14160,22 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addOwner) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			ecdb.addOwner(conn, label, summary, idomain);
 		    }
 		}
 	    }
-	    if (listOwners) {
+	    if (listOwners && pageSize > 0 && !id && sarray.length == 0) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.OWNER, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listOwners) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (id) {
 			    vector = ecdb.listOwners(conn, iarray, full);
@@ -10773,7 +14191,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setOwner) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -10783,12 +14201,15 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteOwner) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID != -1) {
 			    ecdb.deleteUserInfo(conn, ownerID);
 			} else if (opattern != null) {
-			    ecdb.deleteOwner(conn, opattern);
+			    int n = ecdb.deleteOwner(conn, opattern, force);
+			    if (full) {
+				System.out.println(n + " owners deleted");
+			    }
 			} else if (iarray != null && iarray.length > 0) {
 			    ecdb.deleteOwner(conn, iarray);
 			}
@@ -10796,15 +14217,22 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addLocation) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			ecdb.addLocation(conn, label, location);
 		    }
 		}
 	    }
-	    if (listLocations) {
+	    if (listLocations && pageSize > 0 && !id && sarray.length == 0) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.LOCATION, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listLocations) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (id) {
 			    vector = ecdb.listLocations(conn, iarray, full);
@@ -10820,7 +14248,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setLocation) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (locationID == -1 && lpattern != null) {
 			    locationID = ecdb.findLocation(conn, lpattern);
@@ -10830,12 +14258,15 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteLocation) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (locationID != -1) {
 			    ecdb.deleteUserInfo(conn, locationID);
 			} else if (lpattern != null) {
-			    ecdb.deleteLocation(conn, lpattern);
+			    int n = ecdb.deleteLocation(conn, lpattern, force);
+			    if (full) {
+				System.out.println(n + " locations deleted");
+			    }
 			} else if (iarray != null && iarray.length > 0) {
 			    ecdb.deleteLocation(conn, iarray);
 			}
@@ -10843,7 +14274,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addFirstAlarm) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (forEmail == null) forEmail = true;
 			if (forPhone == null) forPhone = true;
@@ -10864,7 +14295,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    if (listFirstAlarms) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -10887,7 +14318,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setFirstAlarm) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -10905,7 +14336,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteFirstAlarm) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -10922,7 +14353,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteFirstAlarms) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -10940,7 +14371,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addSecondAlarm) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (forEmail == null) forEmail = false;
 			if (forPhone == null) forPhone = true;
@@ -10961,7 +14392,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    if (listSecondAlarms) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -10983,7 +14414,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setSecondAlarm) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11001,7 +14432,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteSecondAlarm) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11018,7 +14449,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteSecondAlarms) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11036,7 +14467,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addPreEventDefault) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			// if (forEmail == null) forEmail = false;
 			// if (forPhone == null) forPhone = true;
@@ -11053,7 +14484,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    if (listPreEventDefaults) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11072,7 +14503,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setPreEventDefault) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11086,7 +14517,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deletePreEventDefault) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11099,7 +14530,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deletePreEventDefaults) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11113,7 +14544,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addEvent) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11122,9 +14553,17 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	    if (listEvents) {
+	    if (listEvents && pageSize > 0 && !id && sarray.length == 0
+		&& ownerID == -1 && opattern == null) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.EVENT, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listEvents) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11148,7 +14587,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setEvent) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11162,12 +14601,15 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteEvent) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (eventID != -1) {
 			    ecdb.deleteEvent(conn, eventID);
 			} else if (epattern != null) {
-			    ecdb.deleteEvent(conn, epattern);
+			    int n = ecdb.deleteEvent(conn, epattern, force);
+			    if (full) {
+				System.out.println(n + " events deleted");
+			    }
 			} else if (iarray != null && iarray.length > 0) {
 			    ecdb.deleteEvent(conn, iarray);
 			}
@@ -11175,7 +14617,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addInstance) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11197,9 +14639,20 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	    if (listInstances) {
+	    if (listInstances && pageSize > 0 && !id && instanceID == -1
+		&& ownerID == -1 && opattern == null
+		&& eventID == -1 && epattern == null
+		&& locationID == -1 && lpattern == null
+		&& startDate == null && startTime == null && status == null) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.INSTANCE, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listInstances) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (instanceID != -1) {
 			    vector = ecdb.listEventInstance(conn, instanceID,
@@ -11244,7 +14697,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setInstance) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11266,7 +14719,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteInstance) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (instanceID != -1) {
 			    ecdb.deleteEventInstance(conn, instanceID);
@@ -11294,7 +14747,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addSeries) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11303,9 +14756,17 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	    if (listSeries) {
+	    if (listSeries && pageSize > 0 && !id && ownerID == -1
+		&& opattern == null && spattern == null) {
+		try (ECDB ecdb = openECDB(f)) {
+		    try (Connection conn = ecdb.getConnection()) {
+			printPages(ecdb, conn, Table.SERIES, pageSize, cols,
+				   headingIndex, full);
+		    }
+		}
+	    } else if (listSeries) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (id) {
 			    vector = ecdb.listSeries(conn, iarray, full);
@@ -11325,7 +14786,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (setSeries) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11339,7 +14800,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteSeries) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (seriesID != -1) {
 			    ecdb.deleteSeries(conn, seriesID);
@@ -11347,13 +14808,15 @@ public class ECDB implements AutoCloseable {
 			    if (ownerID == -1 && opattern != null) {
 				ownerID = ecdb.findOwner(conn, opattern);
 				if (ownerID == -1) {
-				    System.err.println("ecdb: "
-						       + "no matching owner "
-						       + "for " + spattern);
-				    System.exit(1);
+				    throw new CommandException
+					("no matching owner for " + spattern);
 				}
 			    }
-			    ecdb.deleteSeries(conn, ownerID, spattern);
+			    int n = ecdb.deleteSeries(conn, ownerID, spattern,
+						      force);
+			    if (full) {
+				System.out.println(n + " series deleted");
+			    }
 			} else if (iarray != null && iarray.length > 0) {
 			    ecdb.deleteSeries(conn, iarray);
 			}
@@ -11361,7 +14824,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addSeriesInst) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11386,7 +14849,7 @@ public class ECDB implements AutoCloseable {
 	    }
 	    if (listSeriesInst) {
 		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11414,7 +14877,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (deleteSeriesInst) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
@@ -11435,7 +14898,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (addAttendee) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11484,8 +14947,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (listAttendees) {
-		Vector<Vector<Object>> vector = null;
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11513,19 +14975,24 @@ public class ECDB implements AutoCloseable {
 			    }
 			    seriesID = ecdb.findSeries(conn, ownerID, spattern);
 			}
-			vector = ecdb.listAttendees(conn, userID, instanceID,
-						    seriesID, attendeeState,
-						    full);
+			// without a page size, the rows are read by a
+			// single query.
+			final int[] pcols = cols;
+			checkCols(pcols);
+			printHeading(headingIndex, pcols, full);
+			ecdb.forEachAttendeeRow(conn, userID, instanceID,
+						seriesID, attendeeState,
+						((pageSize > 0)? pageSize:
+						 Integer.MAX_VALUE),
+						full, (row) -> {
+						    printRow(row, pcols, true);
+						    return true;
+						});
 		    }
 		}
-		if (cols == null) {
-		    print(vector, headingIndex, full);
-		} else {
-		    print(vector, cols, headingIndex, full);
-		}
 	    }
 	    if (deleteAttendee) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11570,15 +15037,19 @@ public class ECDB implements AutoCloseable {
 				seriesID = ecdb.findSeries(conn, ownerID,
 							   spattern);
 			    }
-			    ecdb.deleteAttendee(conn, userID, instanceID,
-						attendeeState, seriesID,
-						false);
+			    int n = ecdb.deleteAttendee(conn, userID,
+							instanceID,
+							attendeeState,
+							seriesID, force);
+			    if (full) {
+				System.out.println(n + " attendees deleted");
+			    }
 			}
 		    }
 		}
 	    }
 	    if (setAttendee) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11630,7 +15101,7 @@ public class ECDB implements AutoCloseable {
 		}
 	    }
 	    if (applySeries) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
@@ -11641,35 +15112,39 @@ public class ECDB implements AutoCloseable {
 			    }
 			    seriesID = ecdb.findSeries(conn, ownerID, spattern);
 			}
-			ecdb.applySeries(conn, userID, seriesID);
+			if (id && iarray != null && iarray.length > 0) {
+			    ecdb.applySeries(conn, iarray, seriesID);
+			} else {
+			    ecdb.applySeries(conn, userID, seriesID);
+			}
 		    }
 		}
 	    }
 	    if (getCalendars) {
-		try (ECDB ecdb = new ECDB(f)) {
+		try (ECDB ecdb = openECDB(f)) {
 		    try (Connection conn = ecdb.getConnection()) {
 			if (userID == -1 && upattern != null) {
 			    userID = ecdb.findUserInfo(conn, upattern);
 			    if (userID == -1) {
-				System.err.println("ecdb: user \"" + upattern
-						   + "\" does not exist");
-				System.exit(1);
+				throw new CommandException
+				    ("user \"" + upattern
+				     + "\" does not exist");
 			    }
 			}
 			if (ownerID == -1 && opattern != null) {
 			    ownerID = ecdb.findOwner(conn, opattern);
 			    if (ownerID == -1) {
-				System.err.println("ecdb: owner \"" + opattern
-						   + "\" does not exist");
-				System.exit(1);
+				throw new CommandException
+				    ("owner \"" + opattern
+				     + "\" does not exist");
 			    }
 			}
 			if (eventID == -1 && epattern != null) {
 			    eventID = ecdb.findEvent(conn, ownerID, epattern);
 			    if (eventID == -1) {
-				System.err.println("ecdb: event \"" + epattern
-						   + "\" does not exist");
-				System.exit(1);
+				throw new CommandException
+				    ("event \"" + epattern
+				     + "\" does not exist");
 			    }
 			}
 			boolean flag = false;
@@ -11719,6 +15194,9 @@ public class ECDB implements AutoCloseable {
 			    ecdb.setTemplateURL(templateURL);
 			    ecdb.setAltMediaType(altMediaType);
 			    ecdb.setAltTemplateURL(altTemplateURL);
+			    if (bccLimit != -1) {
+				ecdb.setBccLimit(bccLimit);
+			    }
 			    if (preflight) {
 				if (sendViaEmail(ecdb, conn, vector,
 						 suppressCalendars,
@@ -11728,6 +15206,13 @@ public class ECDB implements AutoCloseable {
 			    }
 			    sendViaEmail(ecdb, conn, vector,
 					 suppressCalendars, null, false);
+			    if (full) {
+				System.err.format("MMS gateway cache: "
+						  + "%d hits, %d misses\n",
+						  ecdb.getCellEmailCacheHits(),
+						  ecdb
+						  .getCellEmailCacheMisses());
+			    }
 			} else {
 			    ecdb.setSubject(subject);
 			    ecdb.setMediaType(mediaType);
@@ -11743,14 +15228,14 @@ public class ECDB implements AutoCloseable {
 		    }
 		}
 	    }
-	    if (noSetupOptions && noCommands) {
-		try (ECDB ecdb = new ECDB(f)) {
+	    if (noSetupOptions && noCommands && scriptECDB == null) {
+		try (ECDB ecdb = openECDB(f)) {
 		    Support.createGUI(ecdb);
 		}
 	    }
-	} catch (Exception e) {
-	    e.printStackTrace();
-	    System.exit(1);
+	} catch (CommandException e) {
+	    // reported by main or, for a script, by ScriptRunner
+	    throw e;
 	}
     }
 }
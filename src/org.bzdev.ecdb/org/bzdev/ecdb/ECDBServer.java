@@ -0,0 +1,542 @@
+package org.bzdev.ecdb;
+import java.io.*;
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.sql.*;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import org.bzdev.ejws.EmbeddedWebServer;
+import org.bzdev.ejws.maps.ServletWebMap;
+import org.bzdev.net.HttpMethod;
+import org.bzdev.net.HttpServerRequest;
+import org.bzdev.net.HttpServerResponse;
+import org.bzdev.net.ServletAdapter;
+
+/**
+ * HTTP server providing an ECDB API.
+ * The server listens on the loopback interface only, and keeps a
+ * single ECDB instance open so that its connection pool and caches
+ * are shared by all requests.  Because a web page can send requests
+ * to the loopback interface, each request must include the header
+ * <CODE>X-ECDB-Token</CODE> whose value is given by the configuration
+ * property <CODE>server.token</CODE>.  Requests whose
+ * <CODE>Host</CODE> header is not <CODE>localhost</CODE>,
+ * <CODE>127.0.0.1</CODE>, or <CODE>[::1]</CODE> with the server's
+ * port, or that have an <CODE>Origin</CODE> header for some other
+ * origin, are rejected as well.  Requests are handled concurrently,
+ * each with its own connection from the pool, except that
+ * <CODE>calendars</CODE> and <CODE>send</CODE> requests are handled
+ * one at a time.  Request URIs start
+ * with <CODE>/ecdb/</CODE>, followed by an operation name. The
+ * operations are
+ * <UL>
+ *   <LI> <CODE>GET list/TABLE</CODE> - list rows from the carrier,
+ *        user, owner, location, event, instance, or series table.
+ *        The query parameters are <CODE>afterID</CODE>,
+ *        <CODE>pageSize</CODE> (the default is 100, and larger
+ *        values are reduced to 1000), and
+ *        <CODE>full</CODE>, as for
+ *        {@link ECDB#listPage(Connection,ECDB.Table,int,int,boolean,
+ *        ECDB.RowHandler) listPage}.
+ *   <LI> <CODE>GET attendees</CODE> - list attendees. The query
+ *        parameters are <CODE>userID</CODE>, <CODE>instanceID</CODE>,
+ *        <CODE>seriesID</CODE>, <CODE>attendeeState</CODE>, and
+ *        <CODE>full</CODE>.
+ *   <LI> <CODE>POST addUser</CODE>, <CODE>POST setUser</CODE> - add
+ *        or modify a user.
+ *   <LI> <CODE>POST addInstance</CODE>, <CODE>POST setInstance</CODE>
+ *        - add or modify an event instance.
+ *   <LI> <CODE>POST addAttendee</CODE>, <CODE>POST setAttendee</CODE>
+ *        - add or modify an attendee.
+ *   <LI> <CODE>POST calendars</CODE> - get calendar appointments for
+ *        users, selected by <CODE>userID</CODE>, <CODE>ownerID</CODE>,
+ *        and <CODE>eventID</CODE>, with <CODE>forEmail</CODE>
+ *        indicating if the calendars are for email (the default) or
+ *        for text messages.
+ *   <LI> <CODE>POST send</CODE> - send calendar appointments by
+ *        email, using the same members as <CODE>calendars</CODE>
+ *        plus <CODE>suppressCalendars</CODE>.
+ * </UL>
+ * The body of a POST request is a JSON object, with the media type
+ * <CODE>application/json</CODE>, whose members are
+ * named by the parameters of the corresponding ECDB method, with the
+ * same conventions for missing values (-1 for IDs and null
+ * otherwise). Dates use the format YYYY-MM-DD and times use the
+ * format HH:MM:SS. Responses are JSON objects. In the rows listed
+ * with <CODE>full</CODE> set to true, a labeled ID is represented by
+ * an object whose <CODE>id</CODE> member is the ID and whose
+ * <CODE>label</CODE> member is its label. An error is reported
+ * with an HTTP error status and an object whose <CODE>error</CODE>
+ * member describes the error.
+ */
+class ECDBServer implements ServletAdapter {
+
+    static final String PREFIX = "/ecdb/";
+    static final int DEFAULT_THREADS = 8;
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final String TOKEN_HEADER = "X-ECDB-Token";
+
+    private ECDB ecdb;
+    private byte[] token;
+    // set when the server has started; until then, all requests
+    // are rejected.
+    private volatile int port = -1;
+    private final Object calendarLock = new Object();
+
+    ECDBServer(ECDB ecdb, String token) {
+	this.ecdb = ecdb;
+	this.token = token.getBytes(ECDB.UTF8);
+    }
+
+    // JSON encoding
+
+    private static void appendString(StringBuilder sb, String s) {
+	sb.append('"');
+	int len = s.length();
+	for (int i = 0; i < len; i++) {
+	    char ch = s.charAt(i);
+	    switch (ch) {
+	    case '"': sb.append("\\\""); break;
+	    case '\\': sb.append("\\\\"); break;
+	    case '\n': sb.append("\\n"); break;
+	    case '\r': sb.append("\\r"); break;
+	    case '\t': sb.append("\\t"); break;
+	    default:
+		if (ch < 0x20) {
+		    sb.append(String.format("\\u%04x", (int)ch));
+		} else {
+		    sb.append(ch);
+		}
+	    }
+	}
+	sb.append('"');
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+	if (value == null) {
+	    sb.append("null");
+	} else if (value instanceof ECDB.LabeledID) {
+	    // LabeledID.toString() provides only the label
+	    ECDB.LabeledID lid = (ECDB.LabeledID) value;
+	    sb.append("{\"id\":" + lid.getID() + ",\"label\":");
+	    appendString(sb, lid.toString());
+	    sb.append('}');
+	} else if (value instanceof Number || value instanceof Boolean) {
+	    sb.append(value.toString());
+	} else {
+	    appendString(sb, value.toString());
+	}
+    }
+
+    private static void appendRow(StringBuilder sb, String[] heading,
+				  Vector<Object> row)
+    {
+	sb.append('{');
+	int n = Math.min(heading.length, row.size());
+	for (int i = 0; i < n; i++) {
+	    if (i > 0) sb.append(',');
+	    appendString(sb, heading[i]);
+	    sb.append(':');
+	    appendValue(sb, row.get(i));
+	}
+	sb.append('}');
+    }
+
+    private static void send(HttpServerResponse res, int code, String json)
+	throws IOException
+    {
+	byte[] data = json.getBytes(ECDB.UTF8);
+	res.setContentType("application/json; charset=UTF-8");
+	res.sendResponseHeaders(code, data.length);
+	try (OutputStream os = res.getOutputStream()) {
+	    os.write(data);
+	}
+    }
+
+    private static void sendError(HttpServerResponse res, int code,
+				  String msg)
+	throws IOException
+    {
+	StringBuilder sb = new StringBuilder();
+	sb.append("{\"error\":");
+	appendString(sb, (msg == null)? "error": msg);
+	sb.append('}');
+	send(res, code, sb.toString());
+    }
+
+    private static final String OK = "{\"status\":\"ok\"}";
+
+    // Parameters
+
+    private static int intValue(Map<String,String> map, String key) {
+	String value = map.get(key);
+	return (value == null)? -1: Integer.parseInt(value);
+    }
+
+    private static Boolean booleanValue(Map<String,String> map,
+					String key)
+    {
+	String value = map.get(key);
+	if (value == null) return null;
+	if (value.equals("true")) {
+	    return Boolean.TRUE;
+	} else if (value.equals("false")) {
+	    return Boolean.FALSE;
+	} else {
+	    throw new IllegalArgumentException(key + " is not a boolean");
+	}
+    }
+
+    private static boolean booleanValue(Map<String,String> map,
+					String key, boolean defaultValue)
+    {
+	Boolean value = booleanValue(map, key);
+	return (value == null)? defaultValue: value;
+    }
+
+    private static java.sql.Date dateValue(Map<String,String> map,
+					   String key)
+    {
+	String value = map.get(key);
+	return (value == null)? null: java.sql.Date.valueOf(value);
+    }
+
+    private static Time timeValue(Map<String,String> map, String key) {
+	String value = map.get(key);
+	return (value == null)? null: Time.valueOf(value);
+    }
+
+    private static int intParameter(HttpServerRequest req, String name,
+				    int defaultValue)
+    {
+	String value = req.getParameter(name);
+	return (value == null)? defaultValue: Integer.parseInt(value);
+    }
+
+    private static String operation(HttpServerRequest req) {
+	String path = req.getRequestURI();
+	int index = path.indexOf('?');
+	if (index != -1) path = path.substring(0, index);
+	return path.startsWith(PREFIX)? path.substring(PREFIX.length()): path;
+    }
+
+    // Checks
+
+    private boolean isLocalHost(String host) {
+	String suffix = ":" + port;
+	if (!host.endsWith(suffix)) return false;
+	host = host.substring(0, host.length() - suffix.length());
+	return host.equalsIgnoreCase("localhost")
+	    || host.equals("127.0.0.1") || host.equals("[::1]");
+    }
+
+    // Send an error response and return false if a request did not
+    // come from a local client that knows the server's token. The
+    // Host header is checked because a web page could reach the
+    // server through a DNS name that resolves to the loopback
+    // address.
+    private boolean accept(HttpServerRequest req, HttpServerResponse res)
+	throws IOException
+    {
+	String host = req.getHeader("Host");
+	if (host == null || !isLocalHost(host.trim())) {
+	    sendError(res, 403, "Host header not allowed");
+	    return false;
+	}
+	String origin = req.getHeader("Origin");
+	if (origin != null) {
+	    origin = origin.trim();
+	    if (!origin.startsWith("http://")
+		|| !isLocalHost(origin.substring(7))) {
+		sendError(res, 403, "cross-origin request not allowed");
+		return false;
+	    }
+	}
+	String value = req.getHeader(TOKEN_HEADER);
+	if (value == null
+	    || !MessageDigest.isEqual(token,
+				      value.trim().getBytes(ECDB.UTF8))) {
+	    sendError(res, 403, "missing or incorrect " + TOKEN_HEADER);
+	    return false;
+	}
+	return true;
+    }
+
+    private static boolean isJSON(HttpServerRequest req) {
+	String type = req.getContentType();
+	if (type == null) return false;
+	int index = type.indexOf(';');
+	if (index != -1) type = type.substring(0, index);
+	return type.trim().equalsIgnoreCase("application/json");
+    }
+
+    // Requests
+
+    @Override
+    public void doGet(HttpServerRequest req, HttpServerResponse res)
+	throws IOException, ServletAdapter.ServletException
+    {
+	if (!accept(req, res)) return;
+	String op = operation(req);
+	try (Connection conn = ecdb.getConnection()) {
+	    boolean full = "true".equals(req.getParameter("full"));
+	    StringBuilder sb = new StringBuilder();
+	    if (op.startsWith("list/")) {
+		ECDB.Table table =
+		    ECDB.Table.valueOf(op.substring(5).toUpperCase());
+		String[] heading = ECDB.getHeading(table, full);
+		int pageSize = intParameter(req, "pageSize", DEFAULT_PAGE_SIZE);
+		if (pageSize < 1) {
+		    throw new IllegalArgumentException("pageSize must be "
+						       + "positive");
+		}
+		// a client cannot make the server build an arbitrarily
+		// large response.
+		if (pageSize > MAX_PAGE_SIZE) pageSize = MAX_PAGE_SIZE;
+		sb.append("{\"rows\":[");
+		boolean[] first = {true};
+		int lastID = ecdb.listPage(conn, table,
+					   intParameter(req, "afterID", -1),
+					   pageSize, full, (row) -> {
+					       if (!first[0]) sb.append(',');
+					       first[0] = false;
+					       appendRow(sb, heading, row);
+					       return true;
+					   });
+		sb.append("],\"lastID\":" + lastID + "}");
+	    } else if (op.equals("attendees")) {
+		String[] heading = ECDB.getHeading(ECDB.Table.ATTENDEE, full);
+		sb.append("{\"rows\":[");
+		boolean[] first = {true};
+		ecdb.forEachAttendee(conn, intParameter(req, "userID", -1),
+				     intParameter(req, "instanceID", -1),
+				     intParameter(req, "seriesID", -1),
+				     req.getParameter("attendeeState"),
+				     DEFAULT_PAGE_SIZE, full, (row) -> {
+					 if (!first[0]) sb.append(',');
+					 first[0] = false;
+					 appendRow(sb, heading, row);
+					 return true;
+				     });
+		sb.append("]}");
+	    } else {
+		sendError(res, 404, "unknown operation: " + op);
+		return;
+	    }
+	    send(res, 200, sb.toString());
+	} catch (IllegalArgumentException e) {
+	    sendError(res, 400, e.getMessage());
+	} catch (SQLException e) {
+	    sendError(res, 500, e.getMessage());
+	}
+    }
+
+    @Override
+    public void doPost(HttpServerRequest req, HttpServerResponse res)
+	throws IOException, ServletAdapter.ServletException
+    {
+	if (!accept(req, res)) return;
+	if (!isJSON(req)) {
+	    sendError(res, 415, "content type must be application/json");
+	    return;
+	}
+	String op = operation(req);
+	Map<String,String> map;
+	try {
+	    Reader r = new InputStreamReader(req.getInputStream(), ECDB.UTF8);
+	    UserImporter.JSONRecords records =
+		new UserImporter.JSONRecords(r, null);
+	    if (!records.hasNext()) {
+		sendError(res, 400, "missing JSON object");
+		return;
+	    }
+	    map = records.next().fields;
+	} catch (IOException | UncheckedIOException e) {
+	    sendError(res, 400, e.getMessage());
+	    return;
+	}
+	try (Connection conn = ecdb.getConnection()) {
+	    String response = OK;
+	    switch (op) {
+	    case "addUser":
+		{
+		    Boolean lnf = booleanValue(map, "lastNameFirst");
+		    ecdb.addUserInfo(conn, map.get("firstName"),
+				     map.get("lastName"),
+				     (lnf == null)? false: lnf,
+				     map.get("title"), map.get("emailAddr"),
+				     map.get("countryPrefix"),
+				     map.get("cellNumber"),
+				     intValue(map, "carrierID"));
+		}
+		break;
+	    case "setUser":
+		ecdb.setUserInfo(conn, intValue(map, "userID"),
+				 map.get("firstName"), map.get("lastName"),
+				 booleanValue(map, "lastNameFirst"),
+				 map.get("title"), map.get("emailAddr"),
+				 map.get("countryPrefix"),
+				 map.get("cellNumber"),
+				 intValue(map, "carrierID"),
+				 map.get("status"));
+		break;
+	    case "addInstance":
+		ecdb.addEventInstance(conn, intValue(map, "eventID"),
+				      intValue(map, "locationID"),
+				      map.get("preEventType"),
+				      intValue(map, "preEventOffset"),
+				      dateValue(map, "startDate"),
+				      timeValue(map, "startTime"),
+				      dateValue(map, "endDate"),
+				      timeValue(map, "endTime"),
+				      map.get("status"));
+		break;
+	    case "setInstance":
+		ecdb.setEventInstance(conn, intValue(map, "instanceID"),
+				      intValue(map, "eventID"),
+				      intValue(map, "locationID"),
+				      map.get("preEventType"),
+				      intValue(map, "preEventOffset"),
+				      dateValue(map, "startDate"),
+				      timeValue(map, "startTime"),
+				      dateValue(map, "endDate"),
+				      timeValue(map, "endTime"),
+				      map.get("status"));
+		break;
+	    case "addAttendee":
+		ecdb.addAttendee(conn, intValue(map, "userID"),
+				 intValue(map, "instanceID"),
+				 booleanValue(map, "attendingPreEvent", false),
+				 intValue(map, "seriesID"));
+		break;
+	    case "setAttendee":
+		ecdb.setAttendee(conn, intValue(map, "userID"),
+				 intValue(map, "instanceID"),
+				 map.get("attendeeState"),
+				 intValue(map, "seriesID"));
+		break;
+	    case "calendars":
+	    case "send":
+		// CellEmailCache's prefetch state is shared by the
+		// ECDB instance, so these run one at a time.
+		synchronized (calendarLock) {
+		    Vector<ECDB.UserCalendars> vector =
+			ecdb.getCalendars(conn, intValue(map, "userID"),
+					  intValue(map, "ownerID"),
+					  intValue(map, "eventID"),
+					  booleanValue(map, "forEmail", true));
+		    StringBuilder sb = new StringBuilder();
+		    if (op.equals("send")) {
+			if (vector.size() > 0) {
+			    ECDB.sendViaEmail(ecdb, conn, vector,
+					      booleanValue
+					      (map, "suppressCalendars", false),
+					      null, false);
+			}
+			sb.append("{\"status\":\"ok\",\"users\":");
+			sb.append(vector.size());
+			sb.append('}');
+		    } else {
+			sb.append("{\"calendars\":[");
+			boolean first = true;
+			for (ECDB.UserCalendars data: vector) {
+			    if (!first) sb.append(',');
+			    first = false;
+			    sb.append("{\"userID\":" + data.userID
+				      + ",\"calendars\":[");
+			    boolean firstCal = true;
+			    for (byte[] calendar: data.calendars) {
+				if (!firstCal) sb.append(',');
+				firstCal = false;
+				appendString(sb,
+					     new String(calendar, ECDB.UTF8));
+			    }
+			    sb.append("]}");
+			}
+			sb.append("]}");
+		    }
+		    response = sb.toString();
+		}
+		break;
+	    default:
+		sendError(res, 404, "unknown operation: " + op);
+		return;
+	    }
+	    send(res, 200, response);
+	} catch (IllegalArgumentException e) {
+	    sendError(res, 400, e.getMessage());
+	} catch (SQLException e) {
+	    sendError(res, 500, e.getMessage());
+	} catch (IOException e) {
+	    throw e;
+	} catch (Exception e) {
+	    // from sendViaEmail
+	    sendError(res, 500, e.getMessage());
+	}
+    }
+
+    /**
+     * Run a server until the Java virtual machine is shut down.
+     * The number of threads handling requests is given by the
+     * configuration property <CODE>server.threads</CODE> (the
+     * default is 8), and the configuration property
+     * <CODE>server.token</CODE>, which is required, provides the
+     * value of each request's <CODE>X-ECDB-Token</CODE> header.
+     * @param f the configuration file; null for the default
+     * @param port the TCP port; 0 for a port chosen by the system
+     * @throws Exception if an error occurred
+     */
+    static void serve(File f, int port) throws Exception {
+	ECDB ecdb = new ECDB(f);
+	String token = ecdb.dbProperties.getProperty("server.token");
+	if (token == null || token.trim().length() == 0) {
+	    ecdb.close();
+	    throw new ECDB.CommandException
+		("--serve requires the configuration property server.token");
+	}
+	ECDBServer server = new ECDBServer(ecdb, token.trim());
+	EmbeddedWebServer ews;
+	try {
+	    int nthreads =
+		Integer.parseInt(ecdb.dbProperties
+				 .getProperty("server.threads",
+					      "" + DEFAULT_THREADS).trim());
+	    if (nthreads < 1) nthreads = 1;
+	    // open the database before accepting requests.
+	    try (Connection conn = ecdb.getConnection()) {
+	    }
+	    ews = new EmbeddedWebServer(InetAddress.getLoopbackAddress(),
+					port, 48, nthreads);
+	    ews.add(PREFIX, ServletWebMap.class,
+		    new ServletWebMap.Config(server, null, true,
+					     HttpMethod.GET, HttpMethod.POST),
+		    null, true, false, true);
+	    ews.start();
+	} catch (Exception e) {
+	    // e.g., the port is in use: the shutdown hook that would
+	    // close the session has not been installed.
+	    try {
+		ecdb.close();
+	    } catch (SQLException e2) {
+		e.addSuppressed(e2);
+	    }
+	    throw e;
+	}
+	server.port = ews.getPort();
+	CountDownLatch done = new CountDownLatch(1);
+	Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+		    ews.stop(2);
+		    try {
+			ecdb.close();
+		    } catch (SQLException e) {
+			e.printStackTrace();
+		    }
+		    done.countDown();
+	}));
+	System.out.println("ecdb: serving http://localhost:"
+			   + ews.getPort() + PREFIX);
+	done.await();
+    }
+}
@@ -0,0 +1,214 @@
+package org.bzdev.ecdb;
+import java.sql.*;
+import java.util.EnumMap;
+import java.util.HashMap;
+
+/**
+ * Cache for labels and labeled IDs.
+ * The cache holds the labels for individual IDs and the arrays of
+ * labeled IDs used by dialog boxes and combo boxes for the carrier,
+ * owner, location, event, and series tables.  ECDB methods that
+ * modify one of these tables invalidate the entries for that
+ * table.  Because event and series labels include an owner's
+ * label, and because deleting an owner deletes its events and
+ * series, a change to the owner table invalidates the event and
+ * series entries as well.
+ * <P>
+ * When the configuration property <CODE>label.cache.revalidate</CODE>
+ * is a positive number of seconds, the cache is checked at most that
+ * often for changes made by other processes. For the owner,
+ * location, and event tables, the check compares the number of
+ * rows, the largest ID, and the largest modification time with the
+ * values seen when the entries were cached. The carrier and series
+ * tables do not have modification times, so their entries are
+ * simply discarded at that interval.
+ */
+class LabelCache {
+
+    static final long DEFAULT_REVALIDATE = 0;
+
+    private static final class TableCache {
+	// incremented when the entries are invalidated
+	int generation = 0;
+	HashMap<Integer,String> labels = new HashMap<>();
+	HashMap<Integer,ECDB.LabeledID[]> lists = new HashMap<>();
+	long lastChecked = 0;
+	String signature = null;
+    }
+
+    private EnumMap<ECDB.Table,TableCache> tables =
+	new EnumMap<>(ECDB.Table.class);
+
+    private long revalidate;
+
+    /**
+     * Constructor.
+     * @param revalidate the time in seconds between checks for
+     *        changes made by other processes; 0 if there are no checks
+     */
+    LabelCache(long revalidate) {
+	this.revalidate = revalidate * 1000L;
+	for (ECDB.Table table: new ECDB.Table[] {
+		ECDB.Table.CARRIER, ECDB.Table.OWNER, ECDB.Table.LOCATION,
+		ECDB.Table.EVENT, ECDB.Table.SERIES}) {
+	    tables.put(table, new TableCache());
+	}
+    }
+
+    private static String signatureKey(ECDB.Table table) {
+	switch (table) {
+	case OWNER:
+	    return "ownerLabelSignature";
+	case LOCATION:
+	    return "locationLabelSignature";
+	case EVENT:
+	    return "eventLabelSignature";
+	default:
+	    return null;
+	}
+    }
+
+    private static void clear(TableCache tc) {
+	tc.generation++;
+	tc.labels.clear();
+	tc.lists.clear();
+	tc.signature = null;
+    }
+
+    /**
+     * Invalidate the entries for a table.
+     * @param table the table
+     */
+    synchronized void invalidate(ECDB.Table table) {
+	TableCache tc = tables.get(table);
+	if (tc == null) return;
+	clear(tc);
+	if (table == ECDB.Table.OWNER) {
+	    clear(tables.get(ECDB.Table.EVENT));
+	    clear(tables.get(ECDB.Table.SERIES));
+	}
+    }
+
+    /**
+     * Invalidate all entries.
+     */
+    synchronized void clear() {
+	for (TableCache tc: tables.values()) {
+	    clear(tc);
+	}
+    }
+
+    /**
+     * Check for changes made by other processes.
+     * Entries for the table are discarded if a change was detected.
+     * The check occurs at most once per revalidation interval.
+     * @param ecdb the ECDB instance
+     * @param conn the database connection
+     * @param table the table
+     * @return the generation number to pass to the methods that add
+     *         entries
+     */
+    int validate(ECDB ecdb, Connection conn, ECDB.Table table) {
+	if (table == ECDB.Table.EVENT || table == ECDB.Table.SERIES) {
+	    // the labels include owner labels.
+	    validate(ecdb, conn, ECDB.Table.OWNER);
+	}
+	TableCache tc = tables.get(table);
+	long now = System.currentTimeMillis();
+	synchronized (this) {
+	    if (revalidate <= 0 || now - tc.lastChecked < revalidate) {
+		return tc.generation;
+	    }
+	    tc.lastChecked = now;
+	}
+	String key = signatureKey(table);
+	if (key == null) {
+	    synchronized (this) {
+		invalidate(table);
+		return tc.generation;
+	    }
+	}
+	String signature = null;
+	try (PreparedStatement ps =
+	     conn.prepareStatement(ecdb.getSQLProperty(key))) {
+	    try (ResultSet rs = ps.executeQuery()) {
+		if (rs.next()) {
+		    signature = rs.getInt(1) + "/" + rs.getInt(2)
+			+ "/" + rs.getTimestamp(3);
+		}
+	    }
+	} catch (SQLException e) {}
+	synchronized (this) {
+	    if (signature == null || !signature.equals(tc.signature)) {
+		invalidate(table);
+		tc.signature = signature;
+	    }
+	    return tc.generation;
+	}
+    }
+
+    /**
+     * Get the label for an ID.
+     * @param table the table
+     * @param id the ID
+     * @return the label; null if not cached
+     */
+    synchronized String getLabel(ECDB.Table table, int id) {
+	return tables.get(table).labels.get(id);
+    }
+
+    /**
+     * Add the label for an ID.
+     * The label is not added if the table's entries were invalidated
+     * after the generation number was obtained, or if the label is
+     * null (e.g., because the ID did not exist yet), so that a row
+     * inserted later with that ID will have its label read.
+     * @param table the table
+     * @param generation the value returned by
+     *        {@link #validate(ECDB,Connection,ECDB.Table)} before the
+     *        label was read from the database
+     * @param id the ID
+     * @param label the label; null if there is none
+     */
+    synchronized void putLabel(ECDB.Table table, int generation,
+			       int id, String label)
+    {
+	TableCache tc = tables.get(table);
+	if (tc.generation == generation && label != null) {
+	    tc.labels.put(id, label);
+	}
+    }
+
+    /**
+     * Get an array of labeled IDs.
+     * The array returned is a copy so that callers may modify it.
+     * @param table the table
+     * @param key an integer distinguishing arrays for the same table
+     *        (e.g., an owner ID)
+     * @return the labeled IDs; null if not cached
+     */
+    synchronized ECDB.LabeledID[] getList(ECDB.Table table, int key) {
+	ECDB.LabeledID[] list = tables.get(table).lists.get(key);
+	return (list == null)? null: list.clone();
+    }
+
+    /**
+     * Add an array of labeled IDs.
+     * The array is not added if the table's entries were invalidated
+     * after the generation number was obtained.
+     * @param table the table
+     * @param generation the value returned by
+     *        {@link #validate(ECDB,Connection,ECDB.Table)} before the
+     *        labeled IDs were read from the database
+     * @param key an integer distinguishing arrays for the same table
+     * @param list the labeled IDs
+     */
+    synchronized void putList(ECDB.Table table, int generation, int key,
+			      ECDB.LabeledID[] list)
+    {
+	TableCache tc = tables.get(table);
+	if (tc.generation == generation) {
+	    tc.lists.put(key, list.clone());
+	}
+    }
+}
@@ -39,6 +39,28 @@ public abstract class SMTPAgent {
 			      Vector<byte[]> calendars)
 	throws Exception;
 
+    /**
+     * Send a single message to multiple recipients.
+     * The recipients are treated as blind-copy (BCC) recipients so
+     * that they do not see each other's addresses.
+     * The default implementation calls
+     * {@link #send(Properties,String,Vector)} once per recipient.
+     * Subclasses should override this method if they can send one
+     * message to multiple envelope recipients.
+     * @param properties the message properties
+     * @param addresses the recipients' addresses
+     * @param calendars the calendars to attach; null if there are none
+     * @throws Exception if an error occurred
+     */
+    public void sendBcc(Properties properties, Vector<String> addresses,
+			Vector<byte[]> calendars)
+	throws Exception
+    {
+	for (String address: addresses) {
+	    send(properties, address, calendars);
+	}
+    }
+
     public boolean complete(JFrame frame, boolean preflight, Object... rest) {
 	return true;
     }
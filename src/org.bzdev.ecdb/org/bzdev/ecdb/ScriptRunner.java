@@ -0,0 +1,185 @@
+package org.bzdev.ecdb;
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+
+/**
+ * Runner for ecdb scripts.
+ * A script contains one command per line, using the same options and
+ * arguments as the ecdb program, and all of its commands use a single
+ * ECDB instance and a single database connection. Blank lines and
+ * lines starting with "#" are ignored.  Arguments are separated by
+ * white space and may be quoted with single or double quotes; outside
+ * of single quotes, a backslash quotes the next character.  Each
+ * remaining line must contain a command: the ecdb program's GUI is
+ * never started from a script.
+ * <P>
+ * The connection used by the commands is a proxy: closing it has no
+ * effect. When the commands run in a single transaction, calls to
+ * {@link Connection#commit()} and {@link Connection#setAutoCommit(boolean)}
+ * are ignored as well, and the transaction is committed when the
+ * last command has been run. A command that fails ends the script
+ * and, in that case, the transaction is rolled back.
+ */
+class ScriptRunner implements InvocationHandler {
+
+    private Connection connection;
+    private Connection proxy;
+    private boolean transaction;
+
+    private ScriptRunner(Connection connection, boolean transaction) {
+	this.connection = connection;
+	this.transaction = transaction;
+	proxy = (Connection)
+	    Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				   new Class<?>[] {Connection.class},
+				   this);
+    }
+
+    @Override
+    public Object invoke(Object p, Method method, Object[] args)
+	throws Throwable
+    {
+	String name = method.getName();
+	int nargs = (args == null)? 0: args.length;
+	if (name.equals("close") && nargs == 0) {
+	    return null;
+	} else if (name.equals("equals") && nargs == 1) {
+	    return p == args[0];
+	} else if (name.equals("hashCode") && nargs == 0) {
+	    return System.identityHashCode(p);
+	} else if (transaction && name.equals("commit") && nargs == 0) {
+	    return null;
+	} else if (transaction && name.equals("setAutoCommit")
+		   && nargs == 1) {
+	    return null;
+	}
+	try {
+	    return method.invoke(connection, args);
+	} catch (InvocationTargetException e) {
+	    throw e.getCause();
+	}
+    }
+
+    /**
+     * Split a line of a script into arguments.
+     * @param line the line
+     * @param lineno the line number, used in error messages
+     * @return the arguments
+     * @throws IOException if a quotation is not terminated
+     */
+    static ArrayList<String> split(String line, int lineno)
+	throws IOException
+    {
+	ArrayList<String> list = new ArrayList<>();
+	StringBuilder sb = new StringBuilder();
+	boolean inArg = false;
+	char quote = 0;
+	int len = line.length();
+	for (int i = 0; i < len; i++) {
+	    char ch = line.charAt(i);
+	    if (quote == '\'') {
+		if (ch == '\'') {
+		    quote = 0;
+		} else {
+		    sb.append(ch);
+		}
+	    } else if (ch == '\\') {
+		if (++i == len) {
+		    throw new IOException("line " + lineno
+					  + ": backslash at end of line");
+		}
+		sb.append(line.charAt(i));
+		inArg = true;
+	    } else if (quote == '"') {
+		if (ch == '"') {
+		    quote = 0;
+		} else {
+		    sb.append(ch);
+		}
+	    } else if (ch == '\'' || ch == '"') {
+		quote = ch;
+		inArg = true;
+	    } else if (Character.isWhitespace(ch)) {
+		if (inArg) {
+		    list.add(sb.toString());
+		    sb.setLength(0);
+		    inArg = false;
+		}
+	    } else {
+		sb.append(ch);
+		inArg = true;
+	    }
+	}
+	if (quote != 0) {
+	    throw new IOException("line " + lineno + ": missing " + quote);
+	}
+	if (inArg) list.add(sb.toString());
+	return list;
+    }
+
+    /**
+     * Run a script.
+     * @param f the configuration file; null for the default
+     * @param reader the reader providing the script
+     * @param transaction true if the commands should run in a single
+     *        transaction; false if each command commits its own changes
+     * @throws Exception if a command failed
+     */
+    static void run(File f, Reader reader, boolean transaction)
+	throws Exception
+    {
+	BufferedReader r = new BufferedReader(reader);
+	try (ECDB ecdb = new ECDB(f)) {
+	    Connection conn = ecdb.getConnection();
+	    ScriptRunner runner = new ScriptRunner(conn, transaction);
+	    boolean ok = false;
+	    ecdb.scriptConnection = runner.proxy;
+	    ecdb.inScript = true;
+	    ECDB.scriptECDB = ecdb;
+	    try {
+		if (transaction) conn.setAutoCommit(false);
+		String line;
+		int lineno = 0;
+		while ((line = r.readLine()) != null) {
+		    lineno++;
+		    line = line.trim();
+		    if (line.length() == 0 || line.startsWith("#")) continue;
+		    ArrayList<String> args = split(line, lineno);
+		    try {
+			ECDB.runCommand(args.toArray(new String[args.size()]));
+		    } catch (ECDB.CommandException e) {
+			throw new ECDB.CommandException(e.getMessage()
+							+ " on line " + lineno);
+		    } catch (Exception e) {
+			System.err.println("ecdb: script failed at line "
+					   + lineno);
+			throw e;
+		    }
+		}
+		if (transaction) conn.commit();
+		ok = true;
+	    } finally {
+		ECDB.scriptECDB = null;
+		ecdb.inScript = false;
+		ecdb.scriptConnection = null;
+		if (transaction) {
+		    if (!ok) {
+			try {
+			    System.err.println("Rolling back script");
+			    conn.rollback();
+			} catch (SQLException e3) {
+			    System.err.println("SQL exception during rollback");
+			}
+		    }
+		    conn.setAutoCommit(true);
+		}
+		conn.close();
+	    }
+	}
+    }
+}
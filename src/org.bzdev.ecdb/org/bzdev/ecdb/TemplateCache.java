@@ -0,0 +1,277 @@
+package org.bzdev.ecdb;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bzdev.io.AppendableWriter;
+import org.bzdev.util.CopyUtilities;
+import org.bzdev.util.TemplateProcessor;
+
+/**
+ * Cache for message templates.
+ * A template is read from its URL once per ECDB session instead of
+ * once per recipient. For templates stored in files, the file's
+ * modification time is part of the cache key so that a template
+ * edited during a session will be reloaded.
+ * <P>
+ * Each template is also scanned for the keys its directives use.
+ * Two keymaps that agree on those keys produce the same output, so
+ * a processed template can be shared by recipients whose keymaps
+ * match (for example, when a template uses only owner and event
+ * keys).
+ */
+class TemplateCache {
+
+    private static class Entry {
+	long lastModified;
+	String text;
+	Set<String> keys;
+    }
+
+    private HashMap<String,Entry> map = new HashMap<>();
+
+    /**
+     * Writer that converts line terminators to CRLF.
+     * A CRLF sequence is passed through unchanged, a LF not preceded
+     * by a CR is replaced with a CRLF, and a CR not followed by a LF
+     * is not modified.
+     */
+    static class CRLFWriter extends FilterWriter {
+	boolean lastWasCR = false;
+
+	CRLFWriter(Writer out) {
+	    super(out);
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+	    if (c == '\n' && !lastWasCR) {
+		out.write('\r');
+	    }
+	    out.write(c);
+	    lastWasCR = (c == '\r');
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+	    int start = off;
+	    int end = off + len;
+	    for (int i = off; i < end; i++) {
+		char c = cbuf[i];
+		if (c == '\n' && !lastWasCR) {
+		    out.write(cbuf, start, i - start);
+		    out.write('\r');
+		    start = i;
+		}
+		lastWasCR = (c == '\r');
+	    }
+	    out.write(cbuf, start, end - start);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+	    write(str.toCharArray(), off, len);
+	}
+    }
+
+    private static long getLastModified(URL url) {
+	if (url.getProtocol().equals("file")) {
+	    try {
+		return new File(url.toURI()).lastModified();
+	    } catch (URISyntaxException | IllegalArgumentException e) {}
+	}
+	// resources such as the default templates do not change
+	// during a session.
+	return 0L;
+    }
+
+    /**
+     * Get the text of a template.
+     * @param url the template's URL
+     * @return the template
+     * @throws IOException if an IO error occurred
+     */
+    synchronized String getTemplate(URL url) throws IOException {
+	String key = url.toExternalForm();
+	long lastModified = getLastModified(url);
+	Entry entry = map.get(key);
+	if (entry == null || entry.lastModified != lastModified) {
+	    StringBuilder sb = new StringBuilder();
+	    try (InputStream is = url.openStream()) {
+		CopyUtilities.copyStream(is, sb, ECDB.UTF8);
+	    }
+	    entry = new Entry();
+	    entry.lastModified = lastModified;
+	    entry.text = sb.toString();
+	    entry.keys = findKeys(entry.text);
+	    map.put(key, entry);
+	}
+	return entry.text;
+    }
+
+    /**
+     * Find the keys referenced by a template's directives.
+     * Comments and "$$" are skipped. For iterative and conditional
+     * directives, both tokens are included.
+     * @param text the template
+     * @return the keys; null if the template could not be scanned
+     */
+    static Set<String> findKeys(String text) {
+	HashSet<String> keys = new HashSet<>();
+	int len = text.length();
+	int index = 0;
+	while ((index = text.indexOf('$', index)) != -1) {
+	    if (index + 1 == len) break;
+	    char next = text.charAt(index+1);
+	    if (next == '$') {
+		index += 2;
+		continue;
+	    } else if (next != '(') {
+		index++;
+		continue;
+	    }
+	    int end = text.indexOf(')', index);
+	    if (end == -1) return null;
+	    String directive = text.substring(index+2, end);
+	    index = end + 1;
+	    if (directive.startsWith("!")) continue;
+	    if (directive.startsWith("+") || directive.startsWith("-")) {
+		directive = directive.substring(1);
+	    }
+	    for (String token: directive.split(":")) {
+		token = token.trim();
+		if (token.length() > 0) keys.add(token);
+	    }
+	}
+	return keys;
+    }
+
+    /**
+     * Get the keys referenced by a template.
+     * @param url the template's URL
+     * @return the keys; null if the keys could not be determined
+     * @throws IOException if an IO error occurred
+     */
+    synchronized Set<String> getKeys(URL url) throws IOException {
+	getTemplate(url);
+	return map.get(url.toExternalForm()).keys;
+    }
+
+    private static boolean appendSignature(StringBuilder sb, Object value,
+					   Set<String> keys)
+    {
+	if (value == null) {
+	    sb.append('N');
+	} else if (value instanceof String) {
+	    String s = (String) value;
+	    sb.append('S').append(s.length()).append(':').append(s);
+	} else if (value instanceof TemplateProcessor.KeyMap) {
+	    TemplateProcessor.KeyMap kmap = (TemplateProcessor.KeyMap)value;
+	    String[] names = kmap.keySet().toArray(new String[kmap.size()]);
+	    Arrays.sort(names);
+	    sb.append('{');
+	    for (String name: names) {
+		if (!keys.contains(name)) continue;
+		sb.append(name.length()).append(':').append(name);
+		if (!appendSignature(sb, kmap.get(name), keys)) return false;
+	    }
+	    sb.append('}');
+	} else if (value instanceof TemplateProcessor.KeyMapList) {
+	    sb.append('[');
+	    for (TemplateProcessor.KeyMap kmap:
+		     (TemplateProcessor.KeyMapList) value) {
+		if (!appendSignature(sb, kmap, keys)) return false;
+	    }
+	    sb.append(']');
+	} else {
+	    return false;
+	}
+	return true;
+    }
+
+    /**
+     * Get a string that is the same for two keymaps if and only if
+     * they have the same values for the keys a template uses.
+     * @param keys the keys used by a template
+     * @param kmap the keymap
+     * @return the signature; null if one cannot be computed
+     */
+    static String getSignature(Set<String> keys,
+			       TemplateProcessor.KeyMap kmap)
+    {
+	if (keys == null) return null;
+	StringBuilder sb = new StringBuilder();
+	return appendSignature(sb, kmap, keys)? sb.toString(): null;
+    }
+
+    /**
+     * Process a template, writing the results.
+     * @param url the template's URL
+     * @param kmap the keymap to use for substitutions
+     * @param w the writer
+     * @throws IOException if an IO error occurred
+     */
+    void process(URL url, TemplateProcessor.KeyMap kmap, Writer w)
+	throws IOException
+    {
+	TemplateProcessor tp = new TemplateProcessor(kmap);
+	tp.processTemplate(new StringReader(getTemplate(url)), w);
+	w.flush();
+    }
+
+    /**
+     * Process a template, returning the results as a string.
+     * @param url the template's URL
+     * @param kmap the keymap to use for substitutions
+     * @param crlf true if line terminators should be converted to
+     *        CRLF as required for the body of an email message; false
+     *        otherwise
+     * @return the processed template
+     * @throws IOException if an IO error occurred
+     */
+    String process(URL url, TemplateProcessor.KeyMap kmap, boolean crlf)
+	throws IOException
+    {
+	StringBuilder sb = new StringBuilder();
+	Writer w = new AppendableWriter(sb);
+	process(url, kmap, (crlf? new CRLFWriter(w): w));
+	return sb.toString();
+    }
+
+    /**
+     * Process a template, returning the results as a string and
+     * reusing the results for keymaps that agree on the keys the
+     * template uses.
+     * The memo table should be used for a single run (e.g., one call
+     * to ECDB.sendViaEmail) as it is not bounded in size.
+     * @param url the template's URL
+     * @param kmap the keymap to use for substitutions
+     * @param crlf true if line terminators should be converted to
+     *        CRLF as required for the body of an email message; false
+     *        otherwise
+     * @param memo a table of previously processed templates
+     * @return the processed template
+     * @throws IOException if an IO error occurred
+     */
+    String process(URL url, TemplateProcessor.KeyMap kmap, boolean crlf,
+		   Map<String,String> memo)
+	throws IOException
+    {
+	String signature = getSignature(getKeys(url), kmap);
+	if (signature == null) {
+	    return process(url, kmap, crlf);
+	}
+	String key = url.toExternalForm() + (crlf? "\r\n": "\n") + signature;
+	String result = memo.get(key);
+	if (result == null) {
+	    result = process(url, kmap, crlf);
+	    memo.put(key, result);
+	}
+	return result;
+    }
+}
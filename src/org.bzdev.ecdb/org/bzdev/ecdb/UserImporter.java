@@ -0,0 +1,577 @@
+package org.bzdev.ecdb;
+import java.io.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Bulk import of users.
+ * Users are read from a CSV file or a JSON file one record at a time,
+ * so the input does not have to fit in memory. A CSV file starts with
+ * a header line naming its columns; a JSON file contains an array of
+ * objects, or a sequence of objects, whose keys are column names. The
+ * column names are
+ * <UL>
+ *   <LI> <CODE>firstName</CODE> - the user's first name.
+ *   <LI> <CODE>lastName</CODE> - the user's last name.
+ *   <LI> <CODE>lastNameFirst</CODE> - <CODE>true</CODE> if the last
+ *        name is printed first; <CODE>false</CODE> (the default)
+ *        otherwise.
+ *   <LI> <CODE>title</CODE> - the user's title.
+ *   <LI> <CODE>emailAddr</CODE> - the user's email address.
+ *   <LI> <CODE>countryPrefix</CODE> - the country prefix for the
+ *        user's cell phone number.
+ *   <LI> <CODE>cellNumber</CODE> - the user's cell phone number.
+ *   <LI> <CODE>carrier</CODE> - the name of the user's cell phone
+ *        carrier (the default is OTHER).
+ *   <LI> <CODE>carrierID</CODE> - the ID of the user's cell phone
+ *        carrier, used instead of <CODE>carrier</CODE>.
+ * </UL>
+ * Column names are not case sensitive and unknown columns are
+ * ignored.
+ * <P>
+ * Rows are inserted in JDBC batches, and each batch is committed when
+ * it has been executed. A row that is not valid, or that the database
+ * rejects (e.g., a duplicate user), is reported and skipped; the
+ * remaining rows are still imported.
+ */
+class UserImporter {
+
+    static final int BATCH_SIZE = 500;
+
+    private static final String[] COLUMNS = {
+	"firstName", "lastName", "lastNameFirst", "title", "emailAddr",
+	"countryPrefix", "cellNumber", "carrier", "carrierID"
+    };
+
+    private static final Map<String,String> columnNames = new HashMap<>();
+    static {
+	for (String name: COLUMNS) {
+	    columnNames.put(name.toLowerCase(), name);
+	}
+    }
+
+    // A record read from the input, with its starting line number.
+    static final class Record {
+	int line;
+	Map<String,String> fields = new HashMap<>();
+	Record(int line) {this.line = line;}
+    }
+
+    // A validated row ready to be inserted.
+    static final class Row {
+	Record record;
+	String firstName;
+	String lastName;
+	boolean lastNameFirst;
+	String title;
+	String emailAddr;
+	String countryPrefix;
+	String cellNumber;
+	int carrierID;
+    }
+
+    /**
+     * Reader for records in CSV format (RFC 4180).
+     * Fields may be quoted with double quotes, in which case they may
+     * contain commas, line breaks, and doubled double quotes.
+     */
+    static final class CSVRecords implements Iterator<Record> {
+	Reader r;
+	int line = 1;
+	int ch;
+	String[] header;
+	Record next;
+
+	CSVRecords(Reader r) throws IOException {
+	    this.r = r;
+	    ch = r.read();
+	    ArrayList<String> fields = readFields();
+	    if (fields == null) {
+		header = new String[0];
+	    } else {
+		header = fields.toArray(new String[fields.size()]);
+		for (int i = 0; i < header.length; i++) {
+		    header[i] = columnNames.get(header[i].trim()
+					       .toLowerCase());
+		}
+	    }
+	    advance();
+	}
+
+	private ArrayList<String> readFields() throws IOException {
+	    if (ch == -1) return null;
+	    ArrayList<String> fields = new ArrayList<>();
+	    StringBuilder sb = new StringBuilder();
+	    boolean quoted = false;
+	    for (;;) {
+		if (quoted) {
+		    if (ch == -1) {
+			throw new IOException("line " + line
+					      + ": unterminated quote");
+		    } else if (ch == '"') {
+			ch = r.read();
+			if (ch == '"') {
+			    sb.append('"');
+			    ch = r.read();
+			} else {
+			    quoted = false;
+			}
+		    } else {
+			if (ch == '\n') line++;
+			sb.append((char)ch);
+			ch = r.read();
+		    }
+		} else if (ch == '"') {
+		    quoted = true;
+		    ch = r.read();
+		} else if (ch == ',') {
+		    fields.add(sb.toString());
+		    sb.setLength(0);
+		    ch = r.read();
+		} else if (ch == '\r' || ch == '\n' || ch == -1) {
+		    if (ch == '\r') {
+			ch = r.read();
+			if (ch == '\n') ch = r.read();
+		    } else if (ch == '\n') {
+			ch = r.read();
+		    }
+		    line++;
+		    fields.add(sb.toString());
+		    return fields;
+		} else {
+		    sb.append((char)ch);
+		    ch = r.read();
+		}
+	    }
+	}
+
+	private void advance() throws IOException {
+	    next = null;
+	    while (next == null) {
+		int start = line;
+		ArrayList<String> fields = readFields();
+		if (fields == null) return;
+		if (fields.size() == 1 && fields.get(0).trim().length() == 0) {
+		    // blank line
+		    continue;
+		}
+		next = new Record(start);
+		int n = Math.min(fields.size(), header.length);
+		for (int i = 0; i < n; i++) {
+		    if (header[i] != null) {
+			next.fields.put(header[i], fields.get(i));
+		    }
+		}
+	    }
+	}
+
+	@Override
+	public boolean hasNext() {return next != null;}
+
+	@Override
+	public Record next() {
+	    if (next == null) throw new NoSuchElementException();
+	    Record result = next;
+	    try {
+		advance();
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * Reader for records in JSON format.
+     * The input is either an array of objects or a sequence of objects
+     * (e.g., one per line). The values of an object's members must be
+     * strings, numbers, booleans, or null.
+     */
+    static final class JSONRecords implements Iterator<Record> {
+	Reader r;
+	int line = 1;
+	int ch;
+	boolean inArray = false;
+	Record next;
+	// maps lower-case keys to field names; null to keep all keys
+	Map<String,String> names;
+
+	static final String NUMBER = "-?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?";
+
+	JSONRecords(Reader r) throws IOException {
+	    this(r, columnNames);
+	}
+
+	JSONRecords(Reader r, Map<String,String> names) throws IOException {
+	    this.r = r;
+	    this.names = names;
+	    ch = r.read();
+	    skipSpace();
+	    if (ch == '[') {
+		inArray = true;
+		ch = r.read();
+	    }
+	    advance();
+	}
+
+	private IOException error(String msg) {
+	    return new IOException("line " + line + ": " + msg);
+	}
+
+	private void skipSpace() throws IOException {
+	    while (ch != -1 && Character.isWhitespace(ch)) {
+		if (ch == '\n') line++;
+		ch = r.read();
+	    }
+	}
+
+	private void expect(int c) throws IOException {
+	    skipSpace();
+	    if (ch != c) {
+		throw error("expected '" + (char)c + "'");
+	    }
+	    ch = r.read();
+	}
+
+	private String readString() throws IOException {
+	    StringBuilder sb = new StringBuilder();
+	    expect('"');
+	    while (ch != '"') {
+		if (ch == -1 || ch == '\n') {
+		    throw error("unterminated string");
+		} else if (ch == '\\') {
+		    ch = r.read();
+		    switch (ch) {
+		    case 'b': sb.append('\b'); break;
+		    case 'f': sb.append('\f'); break;
+		    case 'n': sb.append('\n'); break;
+		    case 'r': sb.append('\r'); break;
+		    case 't': sb.append('\t'); break;
+		    case 'u':
+			char[] hex = new char[4];
+			for (int i = 0; i < 4; i++) {
+			    hex[i] = (char)r.read();
+			}
+			try {
+			    sb.append((char)Integer.parseInt(new String(hex),
+							     16));
+			} catch (NumberFormatException e) {
+			    throw error("bad unicode escape");
+			}
+			break;
+		    case -1:
+			throw error("unterminated string");
+		    default:
+			sb.append((char)ch);
+		    }
+		} else {
+		    sb.append((char)ch);
+		}
+		ch = r.read();
+	    }
+	    ch = r.read();
+	    return sb.toString();
+	}
+
+	private String readValue() throws IOException {
+	    skipSpace();
+	    if (ch == '"') return readString();
+	    StringBuilder sb = new StringBuilder();
+	    while (ch != -1 && ch != ',' && ch != '}'
+		   && !Character.isWhitespace(ch)) {
+		sb.append((char)ch);
+		ch = r.read();
+	    }
+	    String value = sb.toString();
+	    if (value.equals("null")) {
+		return null;
+	    } else if (value.equals("true") || value.equals("false")
+		       || value.matches(NUMBER)) {
+		return value;
+	    } else {
+		throw error("bad value");
+	    }
+	}
+
+	private void advance() throws IOException {
+	    next = null;
+	    skipSpace();
+	    if (inArray) {
+		if (ch == ']') {
+		    ch = r.read();
+		    inArray = false;
+		    skipSpace();
+		    if (ch != -1) throw error("text after array");
+		    return;
+		}
+	    } else if (ch == -1) {
+		return;
+	    }
+	    next = new Record(line);
+	    expect('{');
+	    skipSpace();
+	    if (ch == '}') {
+		ch = r.read();
+	    } else {
+		for (;;) {
+		    String key = readString();
+		    expect(':');
+		    String value = readValue();
+		    String name = (names == null)? key:
+			names.get(key.toLowerCase());
+		    if (name != null) next.fields.put(name, value);
+		    skipSpace();
+		    if (ch == ',') {
+			ch = r.read();
+			skipSpace();
+		    } else if (ch == '}') {
+			ch = r.read();
+			break;
+		    } else {
+			throw error("expected ',' or '}'");
+		    }
+		}
+	    }
+	    skipSpace();
+	    if (inArray) {
+		if (ch == ',') {
+		    ch = r.read();
+		} else if (ch != ']') {
+		    throw error("expected ',' or ']'");
+		}
+	    }
+	}
+
+	@Override
+	public boolean hasNext() {return next != null;}
+
+	@Override
+	public Record next() {
+	    if (next == null) throw new NoSuchElementException();
+	    Record result = next;
+	    try {
+		advance();
+	    } catch (IOException e) {
+		throw new UncheckedIOException(e);
+	    }
+	    return result;
+	}
+    }
+
+    private ECDB ecdb;
+    private Connection conn;
+    private Appendable rejects;
+    private int rejected = 0;
+    private Map<String,Integer> carriers = new HashMap<>();
+    private int otherCarrierID = -1;
+
+    UserImporter(ECDB ecdb, Connection conn, Appendable rejects)
+	throws SQLException
+    {
+	this.ecdb = ecdb;
+	this.conn = conn;
+	this.rejects = rejects;
+	for (ECDB.CarrierLabeledID lid: ecdb.listCarrierLabeledIDs(conn)) {
+	    carriers.put(lid.label.toUpperCase(), lid.id);
+	}
+	Integer other = carriers.get("OTHER");
+	if (other != null) otherCarrierID = other;
+    }
+
+    int getRejectedCount() {return rejected;}
+
+    private void reject(int line, String reason) throws IOException {
+	rejected++;
+	if (rejects != null) {
+	    rejects.append("line " + line + ": " + reason + "\n");
+	}
+    }
+
+    private static String trim(String s) {
+	if (s == null) return null;
+	s = s.trim();
+	return (s.length() == 0)? null: s;
+    }
+
+    private static String normalize(String s, String regex, String repl) {
+	return (s == null)? null: trim(s.replaceAll(regex, repl));
+    }
+
+    // Validate a record, using the same normalization as addUserInfo.
+    private Row validate(Record record) throws IOException {
+	Map<String,String> f = record.fields;
+	Row row = new Row();
+	row.record = record;
+	row.firstName = normalize(f.get("firstName"), "\\s+\\s*", " ");
+	row.lastName = normalize(f.get("lastName"), "\\s+\\s*", " ");
+	row.title = trim(f.get("title"));
+	row.emailAddr = trim(f.get("emailAddr"));
+	row.countryPrefix = normalize(f.get("countryPrefix"), "^\\s*[+]", "");
+	if (row.countryPrefix == null) row.countryPrefix = "0";
+	row.cellNumber = normalize(f.get("cellNumber"), "\\s|[()-]", "");
+	if (row.firstName == null && row.lastName == null) {
+	    reject(record.line, "no name");
+	    return null;
+	}
+	if (row.emailAddr == null && row.cellNumber == null) {
+	    reject(record.line, "no email address or cell-phone number");
+	    return null;
+	}
+	if (row.cellNumber != null && !row.cellNumber.matches("[0-9]*")) {
+	    reject(record.line, "bad cell-phone number");
+	    return null;
+	}
+	if (!row.countryPrefix.matches("[0-9]+")) {
+	    reject(record.line, "bad country prefix");
+	    return null;
+	}
+	String lnf = trim(f.get("lastNameFirst"));
+	if (lnf == null || lnf.equalsIgnoreCase("false")) {
+	    row.lastNameFirst = false;
+	} else if (lnf.equalsIgnoreCase("true")) {
+	    row.lastNameFirst = true;
+	} else {
+	    reject(record.line, "bad lastNameFirst value");
+	    return null;
+	}
+	String cid = trim(f.get("carrierID"));
+	String carrier = normalize(f.get("carrier"), "\\s\\s+", " ");
+	if (cid != null) {
+	    try {
+		row.carrierID = Integer.parseInt(cid);
+	    } catch (NumberFormatException e) {
+		reject(record.line, "bad carrier ID");
+		return null;
+	    }
+	    if (!carriers.containsValue(row.carrierID)) {
+		reject(record.line, "unknown carrier ID");
+		return null;
+	    }
+	} else if (carrier != null) {
+	    Integer id = carriers.get(carrier.toUpperCase());
+	    if (id == null) {
+		reject(record.line, "unknown carrier " + carrier);
+		return null;
+	    }
+	    row.carrierID = id;
+	} else {
+	    row.carrierID = otherCarrierID;
+	}
+	return row;
+    }
+
+    private static void setParameters(PreparedStatement ps, Row row)
+	throws SQLException
+    {
+	ps.setString(1, row.firstName);
+	ps.setString(2, row.lastName);
+	ps.setBoolean(3, row.lastNameFirst);
+	ps.setString(4, row.title);
+	ps.setString(5, row.emailAddr);
+	ps.setString(6, row.countryPrefix);
+	ps.setString(7, row.cellNumber);
+	if (row.carrierID == -1) {
+	    ps.setNull(8, Types.INTEGER);
+	} else {
+	    ps.setInt(8, row.carrierID);
+	}
+    }
+
+    // Execute and commit a batch. When the database rejects a row,
+    // that row is reported and the rows after it are executed again.
+    private int executeBatch(PreparedStatement ps, ArrayList<Row> batch)
+	throws IOException, SQLException
+    {
+	int count = 0;
+	int start = 0;
+	while (start < batch.size()) {
+	    for (int i = start; i < batch.size(); i++) {
+		setParameters(ps, batch.get(i));
+		ps.addBatch();
+	    }
+	    try {
+		ps.executeBatch();
+		count += batch.size() - start;
+		start = batch.size();
+	    } catch (BatchUpdateException e) {
+		ps.clearBatch();
+		int[] counts = e.getUpdateCounts();
+		int n = (counts == null)? 0: counts.length;
+		if (n < batch.size() - start) {
+		    // the driver stopped at the first failure
+		    count += n;
+		    reject(batch.get(start + n).record.line,
+			   e.getMessage());
+		    start += n + 1;
+		} else {
+		    // the driver executed the remaining rows
+		    for (int i = 0; i < n; i++) {
+			if (counts[i] == Statement.EXECUTE_FAILED) {
+			    reject(batch.get(start + i).record.line,
+				   e.getMessage());
+			} else {
+			    count++;
+			}
+		    }
+		    start = batch.size();
+		}
+	    }
+	}
+	conn.commit();
+	batch.clear();
+	return count;
+    }
+
+    /**
+     * Import users.
+     * @param records the records to import
+     * @return the number of users added
+     * @throws IOException if an IO error occurred
+     * @throws SQLException if an SQL error occurred
+     */
+    int importUsers(Iterator<Record> records)
+	throws IOException, SQLException
+    {
+	int count = 0;
+	ArrayList<Row> batch = new ArrayList<>(BATCH_SIZE);
+	boolean autoCommit = conn.getAutoCommit();
+	try {
+	    conn.setAutoCommit(false);
+	    try (PreparedStatement ps =
+		 conn.prepareStatement(ecdb.getSQLProperty("insertUserInfo"))) {
+		while (records.hasNext()) {
+		    Record record;
+		    try {
+			record = records.next();
+		    } catch (UncheckedIOException e) {
+			throw e.getCause();
+		    }
+		    Row row = validate(record);
+		    if (row == null) continue;
+		    batch.add(row);
+		    if (batch.size() == BATCH_SIZE) {
+			count += executeBatch(ps, batch);
+		    }
+		}
+		if (batch.size() > 0) {
+		    count += executeBatch(ps, batch);
+		}
+	    }
+	} catch (SQLException e) {
+	    try {
+		System.err.println("Rolling back importUsers");
+		conn.rollback();
+	    } catch (SQLException e3) {
+		System.err.println("SQL exception during rollback");
+	    }
+	    throw e;
+	} finally {
+	    conn.setAutoCommit(autoCommit);
+	}
+	return count;
+    }
+}